@@ -0,0 +1,214 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.notNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.statement.Deadline;
+import org.mybatis.spring.statement.DeadlineHolder;
+import org.mybatis.spring.statement.StatementOptions;
+import org.mybatis.spring.statement.StatementOptionsHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs {@code SqlSessionTemplate} calls on a pluggable {@code Executor} and returns a
+ * {@code CompletableFuture} for each of them, so independent queries can be fanned out without
+ * hand-rolled executors. Any {@code Executor} can be used, for example a bounded thread pool or a
+ * thread-per-task executor.
+ * <p>
+ * A call offloaded to the executor runs outside of any Spring transaction: it gets its own
+ * {@code SqlSession}, which is committed and closed once the call ends, as any non transactional
+ * {@code SqlSessionTemplate} call. {@code StatementOptions} and the {@code Deadline} bound to the
+ * calling thread are carried over to the executor.
+ * <p>
+ * Spring transactions (and {@link SqlSessionTemplate#execute(SqlSessionCallback)} units of work)
+ * are bound to the calling thread, so when one is active the call is <em>not</em> offloaded: it
+ * runs on the calling thread, joins the current transaction and the returned future is already
+ * completed (normally or exceptionally) when this template returns it.
+ * <p>
+ * Mapper interfaces created by {@code MapperFactoryBean} may declare {@code CompletableFuture<T>}
+ * return types when an {@code AsyncSqlSessionTemplate} is set on the factory bean.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="asyncSqlSessionTemplate" class="org.mybatis.spring.AsyncSqlSessionTemplate">
+ *   <constructor-arg ref="sqlSessionTemplate" />
+ *   <constructor-arg ref="taskExecutor" />
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see SqlSessionTemplate
+ * @see org.mybatis.spring.mapper.MapperFactoryBean#setAsyncSqlSessionTemplate(AsyncSqlSessionTemplate)
+ * @since 2.0.2
+ */
+public class AsyncSqlSessionTemplate {
+
+    private final SqlSessionTemplate sqlSessionTemplate;
+
+    private final Executor executor;
+
+    /**
+     * Constructs an asynchronous template over a new {@code SqlSessionTemplate} built with the
+     * {@code SqlSessionFactory} provided as an argument.
+     *
+     * @param sqlSessionFactory a factory of SqlSession
+     * @param executor the executor that runs the calls
+     */
+    public AsyncSqlSessionTemplate(SqlSessionFactory sqlSessionFactory, Executor executor) {
+        this(new SqlSessionTemplate(sqlSessionFactory), executor);
+    }
+
+    /**
+     * Constructs an asynchronous template that runs the calls of the given
+     * {@code SqlSessionTemplate} on the given {@code Executor}.
+     *
+     * @param sqlSessionTemplate the template that runs the calls
+     * @param executor the executor that runs the calls
+     */
+    public AsyncSqlSessionTemplate(SqlSessionTemplate sqlSessionTemplate, Executor executor) {
+        notNull(sqlSessionTemplate, "Property 'sqlSessionTemplate' is required");
+        notNull(executor, "Property 'executor' is required");
+
+        this.sqlSessionTemplate = sqlSessionTemplate;
+        this.executor = executor;
+    }
+
+    public SqlSessionTemplate getSqlSessionTemplate() {
+        return this.sqlSessionTemplate;
+    }
+
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * @see SqlSessionTemplate#selectOne(String)
+     */
+    public <T> CompletableFuture<T> selectOne(String statement) {
+        return supply(() -> this.sqlSessionTemplate.selectOne(statement));
+    }
+
+    /**
+     * @see SqlSessionTemplate#selectOne(String, Object)
+     */
+    public <T> CompletableFuture<T> selectOne(String statement, Object parameter) {
+        return supply(() -> this.sqlSessionTemplate.selectOne(statement, parameter));
+    }
+
+    /**
+     * @see SqlSessionTemplate#selectList(String)
+     */
+    public <E> CompletableFuture<List<E>> selectList(String statement) {
+        return supply(() -> this.sqlSessionTemplate.selectList(statement));
+    }
+
+    /**
+     * @see SqlSessionTemplate#selectList(String, Object)
+     */
+    public <E> CompletableFuture<List<E>> selectList(String statement, Object parameter) {
+        return supply(() -> this.sqlSessionTemplate.selectList(statement, parameter));
+    }
+
+    /**
+     * @see SqlSessionTemplate#selectList(String, Object, RowBounds)
+     */
+    public <E> CompletableFuture<List<E>> selectList(String statement, Object parameter, RowBounds rowBounds) {
+        return supply(() -> this.sqlSessionTemplate.selectList(statement, parameter, rowBounds));
+    }
+
+    /**
+     * @see SqlSessionTemplate#selectMap(String, Object, String)
+     */
+    public <K, V> CompletableFuture<Map<K, V>> selectMap(String statement, Object parameter, String mapKey) {
+        return supply(() -> this.sqlSessionTemplate.selectMap(statement, parameter, mapKey));
+    }
+
+    /**
+     * @see SqlSessionTemplate#selectMap(String, Object, String, RowBounds)
+     */
+    public <K, V> CompletableFuture<Map<K, V>> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
+        return supply(() -> this.sqlSessionTemplate.selectMap(statement, parameter, mapKey, rowBounds));
+    }
+
+    /**
+     * @see SqlSessionTemplate#insert(String, Object)
+     */
+    public CompletableFuture<Integer> insert(String statement, Object parameter) {
+        return supply(() -> this.sqlSessionTemplate.insert(statement, parameter));
+    }
+
+    /**
+     * @see SqlSessionTemplate#update(String, Object)
+     */
+    public CompletableFuture<Integer> update(String statement, Object parameter) {
+        return supply(() -> this.sqlSessionTemplate.update(statement, parameter));
+    }
+
+    /**
+     * @see SqlSessionTemplate#delete(String, Object)
+     */
+    public CompletableFuture<Integer> delete(String statement, Object parameter) {
+        return supply(() -> this.sqlSessionTemplate.delete(statement, parameter));
+    }
+
+    /**
+     * Runs the given callback as a single unit of work on the executor.
+     *
+     * @param action the callback that runs the MyBatis calls
+     * @param <T> the result type of the callback
+     * @return a future completed with the result of the callback
+     * @see SqlSessionTemplate#execute(SqlSessionCallback)
+     */
+    public <T> CompletableFuture<T> execute(SqlSessionCallback<T> action) {
+        notNull(action, "Parameter 'action' must be not null");
+        return supply(() -> this.sqlSessionTemplate.execute(action));
+    }
+
+    /**
+     * Runs the call on the executor, or on the calling thread when it has a Spring transaction
+     * or a unit of work bound because those cannot be used from other threads.
+     */
+    private <T> CompletableFuture<T> supply(Supplier<T> call) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()
+                || this.sqlSessionTemplate.isSqlSessionHolderBound()) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                future.complete(call.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        StatementOptions statementOptions = StatementOptionsHolder.getStatementOptions();
+        Deadline deadline = DeadlineHolder.getDeadline();
+        if (statementOptions == null && deadline == null) {
+            return CompletableFuture.supplyAsync(call, this.executor);
+        }
+        // carry the statement options and the deadline of the calling thread over to the executor
+        return CompletableFuture.supplyAsync(() -> DeadlineHolder.callWith(deadline,
+                () -> StatementOptionsHolder.callWith(statementOptions, call)), this.executor);
+    }
+
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.hasText;
+import static org.springframework.util.Assert.isTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.exceptions.TooManyResultsException;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Batches the concurrent {@code selectOne} calls of a by-key statement into calls of a multi-key
+ * statement, in the spirit of DataLoader. It is registered on a {@code SqlSessionTemplate} for the
+ * by-key statement, so calling code like {@code mapper.findById(id)} is unchanged.
+ * <p>
+ * Keys are collected while a batch of the same loader is running (and during the optional batch
+ * window), then the next batch runs them all at once, split in chunks of {@code maxBatchSize}
+ * keys. Concurrent callers, like request threads or the tasks of an
+ * {@code AsyncSqlSessionTemplate}, share the round trips: N calls cost about
+ * {@code ceil(N / maxBatchSize)} of them. A thread running calls one after the other does not
+ * benefit. Calls inside a Spring transaction or a unit of work, and calls with a {@code Deadline},
+ * are not batched.
+ * <p>
+ * The multi-key statement gets the list of keys as parameter, for example
+ * {@code WHERE id IN <foreach collection="list" ...>}, and each returned row is handed to the
+ * caller of the key found in its {@code keyProperty}. The key of a call is its parameter when it
+ * is a single value, or its {@code keyProperty} otherwise (like an {@code @Param("id")}).
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionTemplate" class="org.mybatis.spring.SqlSessionTemplate">
+ *   <constructor-arg ref="sqlSessionFactory" />
+ *   <property name="batchLoaders">
+ *     <bean class="org.mybatis.spring.BatchLoader">
+ *       <constructor-arg value="org.example.UserMapper.findById" />
+ *       <constructor-arg value="org.example.UserMapper.findByIds" />
+ *       <constructor-arg value="id" />
+ *     </bean>
+ *   </property>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see SqlSessionTemplate#setBatchLoaders(java.util.Collection)
+ * @since 2.0.2
+ */
+public class BatchLoader {
+
+    private final String statement;
+
+    private final String batchStatement;
+
+    private final String keyProperty;
+
+    private int maxBatchSize = 500;
+
+    private long batchWindowNanos;
+
+    private final Object lock = new Object();
+
+    private Batch pending;
+
+    private boolean running;
+
+    /**
+     * @param statement the id of the by-key statement whose calls are batched
+     * @param batchStatement the id of the statement selecting the rows of a list of keys
+     * @param keyProperty the property holding the key in the rows, and in the parameter of the
+     *        by-key calls when it is not a single value
+     */
+    public BatchLoader(String statement, String batchStatement, String keyProperty) {
+        hasText(statement, "Property 'statement' is required");
+        hasText(batchStatement, "Property 'batchStatement' is required");
+        hasText(keyProperty, "Property 'keyProperty' is required");
+
+        this.statement = statement;
+        this.batchStatement = batchStatement;
+        this.keyProperty = keyProperty;
+    }
+
+    public String getStatement() {
+        return this.statement;
+    }
+
+    public String getBatchStatement() {
+        return this.batchStatement;
+    }
+
+    public String getKeyProperty() {
+        return this.keyProperty;
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * Sets how many keys are passed to one call of the multi-key statement. Defaults to 500.
+     *
+     * @param maxBatchSize the maximum size of the key list
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        isTrue(maxBatchSize > 0, "Property 'maxBatchSize' must be greater than 0");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets how long a batch waits for more keys before running even when no other batch is running.
+     * Defaults to 0, keys are then only collected while another batch runs, which adds no latency.
+     *
+     * @param batchWindowMicros the batch window in microseconds
+     */
+    public void setBatchWindowMicros(long batchWindowMicros) {
+        isTrue(batchWindowMicros >= 0, "Property 'batchWindowMicros' must be positive");
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+    }
+
+    /**
+     * Returns loaders with the same settings as the given ones but batches of their own, for a
+     * template running its calls on another factory.
+     */
+    static List<BatchLoader> copyOf(Collection<BatchLoader> batchLoaders) {
+        List<BatchLoader> copies = new ArrayList<>(batchLoaders.size());
+        for (BatchLoader batchLoader : batchLoaders) {
+            BatchLoader copy = new BatchLoader(batchLoader.statement, batchLoader.batchStatement, batchLoader.keyProperty);
+            copy.maxBatchSize = batchLoader.maxBatchSize;
+            copy.batchWindowNanos = batchLoader.batchWindowNanos;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Loads the row of the key of the given parameter, batched with the concurrent calls.
+     */
+    <T> T load(SqlSessionTemplate sqlSessionTemplate, Object parameter) {
+        Object key = keyOf(sqlSessionTemplate.getConfiguration(), parameter);
+        Batch batch;
+        CompletableFuture<Object> row;
+        boolean leader = false;
+        synchronized (this.lock) {
+            if (this.pending == null) {
+                this.pending = new Batch();
+                leader = true;
+            }
+            batch = this.pending;
+            row = batch.rows.computeIfAbsent(key, k -> new CompletableFuture<>());
+        }
+        if (leader) {
+            runBatch(sqlSessionTemplate, batch);
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            T result = (T) row.join();
+            return result;
+        } catch (CompletionException e) {
+            // already translated by the batch
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private void runBatch(SqlSessionTemplate sqlSessionTemplate, Batch batch) {
+        synchronized (this.lock) {
+            long deadline = System.nanoTime() + this.batchWindowNanos;
+            long remaining = this.batchWindowNanos;
+            boolean interrupted = false;
+            while (this.running || remaining > 0) {
+                try {
+                    if (this.running) {
+                        this.lock.wait();
+                    } else {
+                        TimeUnit.NANOSECONDS.timedWait(this.lock, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            // later keys go to the next batch
+            this.pending = null;
+            this.running = true;
+        }
+        try {
+            List<Object> keys = new ArrayList<>(batch.rows.keySet());
+            for (int from = 0; from < keys.size(); from += this.maxBatchSize) {
+                List<Object> chunk = keys.subList(from, Math.min(keys.size(), from + this.maxBatchSize));
+                completeChunk(sqlSessionTemplate, batch, chunk,
+                        sqlSessionTemplate.selectList(this.batchStatement, new ArrayList<>(chunk)));
+            }
+        } catch (RuntimeException e) {
+            batch.rows.values().forEach(row -> row.completeExceptionally(e));
+        } finally {
+            // keys without a row
+            batch.rows.values().forEach(row -> row.complete(null));
+            synchronized (this.lock) {
+                this.running = false;
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    private void completeChunk(SqlSessionTemplate sqlSessionTemplate, Batch batch, List<Object> chunk, List<Object> result) {
+        Configuration configuration = sqlSessionTemplate.getConfiguration();
+        Map<Object, Object> rows = new LinkedHashMap<>();
+        Map<Object, Integer> counts = new LinkedHashMap<>();
+        for (Object row : result) {
+            Object key = row == null ? null : normalize(configuration.newMetaObject(row).getValue(this.keyProperty));
+            rows.put(key, row);
+            counts.merge(key, 1, Integer::sum);
+        }
+        for (Object key : chunk) {
+            CompletableFuture<Object> future = batch.rows.get(key);
+            Integer count = counts.get(key);
+            if (count != null && count > 1) {
+                // same as DefaultSqlSession#selectOne
+                RuntimeException e = new TooManyResultsException(
+                        "Expected one result (or null) to be returned by selectOne(), but found: " + count);
+                RuntimeException translated = sqlSessionTemplate.getPersistenceExceptionTranslator() == null ? null
+                        : sqlSessionTemplate.getPersistenceExceptionTranslator().translateExceptionIfPossible(e);
+                future.completeExceptionally(translated == null ? e : translated);
+            } else {
+                future.complete(rows.get(key));
+            }
+        }
+    }
+
+    private Object keyOf(Configuration configuration, Object parameter) {
+        if (parameter == null || configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+            return normalize(parameter);
+        }
+        MetaObject metaObject = configuration.newMetaObject(parameter);
+        return normalize(metaObject.getValue(this.keyProperty));
+    }
+
+    /**
+     * Compares integral keys by value whatever their type, as a row key mapped to an
+     * {@code Integer} must match a {@code Long} parameter. Also used by {@code ChunkedSelect}.
+     */
+    static Object normalize(Object key) {
+        if (key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return ((Number) key).longValue();
+        }
+        return key;
+    }
+
+    private static final class Batch {
+        private final Map<Object, CompletableFuture<Object>> rows = new LinkedHashMap<>();
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.ibatis.session.Configuration;
+import org.mybatis.spring.statement.Deadline;
+import org.mybatis.spring.statement.DeadlineHolder;
+import org.mybatis.spring.statement.StatementOptions;
+import org.mybatis.spring.statement.StatementOptionsHolder;
+
+/**
+ * Runs a SELECT once per chunk of a large collection of values and merges the results. The chunks
+ * are pulled by the calling thread and, if an executor is given, by up to {@code parallelism - 1}
+ * tasks of that executor, so at most {@code parallelism} chunks run at once and the calling thread
+ * always makes progress even if the executor is saturated.
+ *
+ * @see SqlSessionTemplate#selectListInChunks(String, Collection, int, Function, String)
+ * @since 2.0.2
+ */
+final class ChunkedSelect<E> {
+
+    private final List<List<Object>> chunks;
+
+    private final Function<List<Object>, List<E>> query;
+
+    private final List<List<E>> results;
+
+    private final AtomicInteger nextChunk = new AtomicInteger();
+
+    private volatile boolean failed;
+
+    ChunkedSelect(Collection<?> values, int chunkSize, Function<List<Object>, List<E>> query) {
+        List<Object> all = new ArrayList<>(values);
+        this.chunks = new ArrayList<>((all.size() + chunkSize - 1) / chunkSize);
+        for (int from = 0; from < all.size(); from += chunkSize) {
+            this.chunks.add(all.subList(from, Math.min(all.size(), from + chunkSize)));
+        }
+        this.query = query;
+        this.results = new ArrayList<>(this.chunks.size());
+        this.chunks.forEach(chunk -> this.results.add(null));
+    }
+
+    /**
+     * Runs the chunks and returns the results merged in chunk order.
+     *
+     * @param executor the executor running the other chunks, or {@code null} to run them all on
+     *        the calling thread
+     * @param parallelism the maximum number of chunks running at once
+     */
+    List<E> run(Executor executor, int parallelism) {
+        int workers = executor == null ? 0 : Math.min(parallelism, this.chunks.size()) - 1;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(Math.max(workers, 0));
+        if (workers > 0) {
+            // carry the statement options and the deadline of the calling thread over to the executor
+            StatementOptions statementOptions = StatementOptionsHolder.getStatementOptions();
+            Deadline deadline = DeadlineHolder.getDeadline();
+            for (int i = 0; i < workers; i++) {
+                futures.add(CompletableFuture.runAsync(() -> DeadlineHolder.callWith(deadline,
+                        () -> StatementOptionsHolder.callWith(statementOptions, this::work)), executor));
+            }
+        }
+        RuntimeException failure = null;
+        try {
+            work();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // the workers stop at their next chunk once a chunk failed, the first failure is kept
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                RuntimeException cause = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                if (failure == null) {
+                    failure = cause;
+                } else if (failure != cause) {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        List<E> merged = new ArrayList<>();
+        this.results.forEach(merged::addAll);
+        return merged;
+    }
+
+    private Void work() {
+        try {
+            for (int chunk = this.nextChunk.getAndIncrement(); chunk < this.chunks.size() && !this.failed;
+                 chunk = this.nextChunk.getAndIncrement()) {
+                List<E> result = this.query.apply(this.chunks.get(chunk));
+                synchronized (this.results) {
+                    this.results.set(chunk, result);
+                }
+            }
+            return null;
+        } catch (RuntimeException e) {
+            this.failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Sorts rows in the order of their key in the given values, rows with an unknown key last.
+     */
+    static <E> List<E> sortByKey(Configuration configuration, List<E> rows, Collection<?> values, String keyProperty) {
+        Map<Object, Integer> positions = new HashMap<>();
+        int position = 0;
+        for (Object value : values) {
+            positions.putIfAbsent(BatchLoader.normalize(value), position++);
+        }
+        List<Map.Entry<Integer, E>> positioned = new ArrayList<>(rows.size());
+        for (E row : rows) {
+            Object key = BatchLoader.normalize(configuration.newMetaObject(row).getValue(keyProperty));
+            positioned.add(new AbstractMap.SimpleImmutableEntry<>(positions.getOrDefault(key, Integer.MAX_VALUE), row));
+        }
+        positioned.sort(Map.Entry.comparingByKey());
+        List<E> sorted = new ArrayList<>(positioned.size());
+        positioned.forEach(entry -> sorted.add(entry.getValue()));
+        return sorted;
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A map of {@code long} keys to {@code int} values using open addressing with linear probing,
+ * so neither keys nor values are boxed and no entry objects are allocated. It is returned by
+ * {@link SqlSessionTemplate#selectIntMap(String, Object, String, String)}, typically to hold id to
+ * count results. This class is not thread safe.
+ *
+ * @since 2.0.2
+ */
+public final class LongIntMap {
+
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    // 0 marks a free slot of the key array, the entry of key 0 is kept apart
+    private long[] keys;
+
+    private int[] values;
+
+    private int mask;
+
+    private int size;
+
+    private boolean hasZeroKey;
+
+    private int zeroValue;
+
+    /**
+     * Constructs an empty map.
+     */
+    public LongIntMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty map sized to hold the given number of entries without growing.
+     *
+     * @param expectedSize the expected number of entries
+     */
+    public LongIntMap(int expectedSize) {
+        int capacity = 2;
+        while (capacity < MAX_CAPACITY && capacity * 3L / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? this.hasZeroKey : this.keys[slotOf(key)] != 0;
+    }
+
+    /**
+     * Returns the value of the given key, or {@code defaultValue} if the map has no such key.
+     *
+     * @param key the key
+     * @param defaultValue the value returned for a missing key
+     * @return the value of the key
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        if (key == 0) {
+            return this.hasZeroKey ? this.zeroValue : defaultValue;
+        }
+        int slot = slotOf(key);
+        return this.keys[slot] != 0 ? this.values[slot] : defaultValue;
+    }
+
+    /**
+     * Associates the given value to the given key, replacing any previous value.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(long key, int value) {
+        if (key == 0) {
+            if (!this.hasZeroKey) {
+                this.hasZeroKey = true;
+                this.size++;
+            }
+            this.zeroValue = value;
+            return;
+        }
+        int slot = slotOf(key);
+        if (this.keys[slot] == 0) {
+            if ((this.size + 1) * 4L > this.keys.length * 3L) {
+                grow();
+                slot = slotOf(key);
+            }
+            this.keys[slot] = key;
+            this.size++;
+        }
+        this.values[slot] = value;
+    }
+
+    /**
+     * Applies the given function to the value of the given key, starting from 0 for a missing key,
+     * and stores the result.
+     *
+     * @param key the key
+     * @param function the function computing the new value from the current one
+     */
+    public void merge(long key, IntUnaryOperator function) {
+        put(key, function.applyAsInt(getOrDefault(key, 0)));
+    }
+
+    /**
+     * Calls the given consumer with every entry of this map, in no particular order.
+     *
+     * @param consumer the consumer of the entries
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (this.hasZeroKey) {
+            consumer.accept(0, this.zeroValue);
+        }
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != 0) {
+                consumer.accept(this.keys[i], this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries of this map.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, 0);
+        this.hasZeroKey = false;
+        this.size = 0;
+    }
+
+    private int slotOf(long key) {
+        // spreads the bits of sequential ids over the table
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & this.mask;
+        while (this.keys[slot] != 0 && this.keys[slot] != key) {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private void grow() {
+        if (this.keys.length >= MAX_CAPACITY) {
+            throw new IllegalStateException("LongIntMap cannot hold more than " + this.size + " entries");
+        }
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slotOf(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> builder.append(builder.length() > 1 ? ", " : "").append(key).append('=').append(value));
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Consumer of the entries of a {@code LongIntMap}.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        void accept(long key, int value);
+
+    }
+
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSession;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.leak.OpenResourceType;
+import org.mybatis.spring.leak.ResourceLeakTracker;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+
+/**
+ * {@code Cursor} returned by {@code SqlSessionTemplate} outside a transaction. It owns the
+ * non transactional {@code SqlSession} that opened it and keeps it (and its connection) open until
+ * the cursor is closed or fully consumed. The session is then committed, if needed, and closed.
+ * <p>
+ * Cursors that become unreachable without being closed are reported as leaks. Once such a cursor
+ * has been garbage collected, its session is closed the next time a non transactional
+ * {@code SqlSession} is opened through {@code SqlSessionUtils}, so by any non transactional
+ * {@code SqlSessionTemplate} call. Until then it keeps its connection. When the factory of the session has a
+ * {@code ResourceLeakTracker}, the cursor is tracked in place of its session.
+ *
+ * @since 2.0.2
+ */
+final class ManagedCursor<T> implements Cursor<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedCursor.class);
+
+    private static final ReferenceQueue<ManagedCursor<?>> ABANDONED_CURSORS = new ReferenceQueue<>();
+
+    private static final Set<SessionReference> OPEN_CURSORS = ConcurrentHashMap.newKeySet();
+
+    private final Cursor<T> delegate;
+
+    private final SessionReference sessionReference;
+
+    private final boolean commitOnClose;
+
+    private final PersistenceExceptionTranslator exceptionTranslator;
+
+    ManagedCursor(Cursor<T> delegate, SqlSession sqlSession, String statement, boolean commitOnClose,
+                  PersistenceExceptionTranslator exceptionTranslator, Runnable onRelease, ResourceLeakTracker leakTracker) {
+        releaseAbandonedCursors();
+        this.delegate = delegate;
+        this.commitOnClose = commitOnClose;
+        this.exceptionTranslator = exceptionTranslator;
+        SessionReference reference = new SessionReference(this, sqlSession, statement, onRelease, leakTracker);
+        this.sessionReference = reference;
+        OPEN_CURSORS.add(reference);
+        if (leakTracker != null) {
+            // the cursor owns the session from now on, the tracker must not reference the cursor itself
+            leakTracker.untrack(sqlSession);
+            leakTracker.track(reference, OpenResourceType.CURSOR, statement, reference::forceRelease);
+        }
+    }
+
+    /**
+     * Closes the sessions of the managed cursors that were garbage collected without being closed.
+     * It is cheap when there are none.
+     */
+    static void releaseAbandonedCursors() {
+        SessionReference reference;
+        while ((reference = (SessionReference) ABANDONED_CURSORS.poll()) != null) {
+            if (OPEN_CURSORS.remove(reference)) {
+                SessionReference leaked = reference;
+                LOGGER.warn(() -> "Cursor of statement '" + leaked.statement + "' was not closed after "
+                        + (System.currentTimeMillis() - leaked.openedAt) + " ms, closing its SqlSession ["
+                        + leaked.sqlSession + "]. Close cursors and streams returned by SqlSessionTemplate.");
+                leaked.release();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return this.delegate.isOpen();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isConsumed() {
+        return this.delegate.isConsumed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCurrentIndex() {
+        return this.delegate.getCurrentIndex();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The session is released as soon as the returned iterator has no more elements.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<T> iterator = this.delegate.iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = iterator.hasNext();
+                if (!hasNext) {
+                    close();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    /**
+     * Closes the cursor and completes its session. It can be called more than once.
+     */
+    @Override
+    public void close() {
+        if (!OPEN_CURSORS.remove(this.sessionReference)) {
+            return;
+        }
+        SessionReference reference = this.sessionReference;
+        SqlSession sqlSession = reference.sqlSession;
+        reference.clear();
+        try {
+            this.delegate.close();
+            if (this.commitOnClose) {
+                sqlSession.commit(true);
+            }
+        } catch (PersistenceException e) {
+            RuntimeException translated = this.exceptionTranslator != null
+                    ? this.exceptionTranslator.translateExceptionIfPossible(e) : null;
+            throw translated != null ? translated : e;
+        } catch (IOException e) {
+            throw new PersistenceException("Error closing cursor of statement '" + this.sessionReference.statement + "'", e);
+        } finally {
+            reference.release();
+        }
+    }
+
+    /**
+     * Keeps what is needed to release the session of a cursor once the cursor itself is unreachable.
+     */
+    private static final class SessionReference extends PhantomReference<ManagedCursor<?>> {
+
+        private final SqlSession sqlSession;
+
+        private final String statement;
+
+        private final Runnable onRelease;
+
+        private final ResourceLeakTracker leakTracker;
+
+        private final long openedAt = System.currentTimeMillis();
+
+        SessionReference(ManagedCursor<?> cursor, SqlSession sqlSession, String statement, Runnable onRelease,
+                         ResourceLeakTracker leakTracker) {
+            super(cursor, ABANDONED_CURSORS);
+            this.sqlSession = sqlSession;
+            this.statement = statement;
+            this.onRelease = onRelease;
+            this.leakTracker = leakTracker;
+        }
+
+        /**
+         * Releases the session of a cursor that is still open, as the leak tracker does once it is too
+         * old. The cursor then fails when it is read.
+         */
+        void forceRelease() {
+            if (OPEN_CURSORS.remove(this)) {
+                clear();
+                release();
+            }
+        }
+
+        /**
+         * Closes the session and then runs the release callback of the cursor, if any.
+         */
+        void release() {
+            if (this.leakTracker != null) {
+                this.leakTracker.untrack(this);
+            }
+            try {
+                this.sqlSession.close();
+            } finally {
+                if (this.onRelease != null) {
+                    this.onRelease.run();
+                }
+            }
+        }
+    }
+
+}
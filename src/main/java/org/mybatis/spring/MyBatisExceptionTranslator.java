@@ -73,6 +73,9 @@ public class MyBatisExceptionTranslator implements PersistenceExceptionTranslato
                 return this.exceptionTranslator.translate(e.getMessage() + "\n", null, (SQLException) e.getCause());
             } else if (e.getCause() instanceof TransactionException) {
                 throw (TransactionException) e.getCause();
+            } else if (e.getCause() instanceof DataAccessException) {
+                // already translated, for example by a plugin
+                return (DataAccessException) e.getCause();
             }
             return new MyBatisSystemException(e);
         }
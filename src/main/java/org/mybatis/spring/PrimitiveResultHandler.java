@@ -0,0 +1,213 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.springframework.dao.TypeMismatchDataAccessException;
+
+/**
+ * {@code ResultHandler}s storing the rows of a statement into primitive buffers as they are read
+ * from the {@code ResultSet}, so no list nor map of boxed results is built. A row that cannot be
+ * stored stops the statement and is reported by {@link #checkResult(String)} once it has ended,
+ * outside of MyBatis so the exception is not wrapped.
+ *
+ * @since 2.0.2
+ */
+abstract class PrimitiveResultHandler implements ResultHandler<Object> {
+
+    private String error;
+
+    @Override
+    public final void handleResult(ResultContext<?> context) {
+        String message = store(context.getResultObject());
+        if (message != null) {
+            this.error = message + " at row " + context.getResultCount();
+            context.stop();
+        }
+    }
+
+    /**
+     * Stores the given row, returning an error message if it cannot be stored.
+     */
+    abstract String store(Object row);
+
+    void checkResult(String statement) {
+        if (this.error != null) {
+            throw new TypeMismatchDataAccessException("Statement '" + statement + "' " + this.error);
+        }
+    }
+
+    private static String checkNumber(Object value, String what) {
+        if (value == null) {
+            return "returned a null " + what;
+        } else if (!(value instanceof Number)) {
+            return "returned a " + what + " of type " + value.getClass().getName() + " instead of a number";
+        }
+        return null;
+    }
+
+    /**
+     * Checks the value is a number whose exact value is a {@code long}.
+     */
+    private static String checkLong(Object value, String what) {
+        String message = checkNumber(value, what);
+        if (message == null && !isLong((Number) value)) {
+            return "returned a " + what + " of " + value + " that is not a long";
+        }
+        return message;
+    }
+
+    /**
+     * Checks the value is a number whose exact value is an {@code int}.
+     */
+    private static String checkInt(Object value, String what) {
+        String message = checkNumber(value, what);
+        if (message == null && (!isLong((Number) value)
+                || ((Number) value).longValue() != ((Number) value).intValue())) {
+            return "returned a " + what + " of " + value + " that is not an int";
+        }
+        return message;
+    }
+
+    private static boolean isLong(Number value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return true;
+        } else if (value instanceof BigInteger) {
+            return ((BigInteger) value).bitLength() < Long.SIZE;
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            return d == Math.rint(d) && d >= -0x1p63 && d < 0x1p63;
+        }
+        try {
+            BigDecimal decimal = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+            decimal.longValueExact();
+            return true;
+        } catch (ArithmeticException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Fills a growable {@code long[]} with single column rows.
+     */
+    static final class Longs extends PrimitiveResultHandler {
+
+        private long[] values = new long[64];
+
+        private int size;
+
+        @Override
+        String store(Object row) {
+            String message = checkLong(row, "value");
+            if (message == null) {
+                if (this.size == this.values.length) {
+                    this.values = Arrays.copyOf(this.values, this.size << 1);
+                }
+                this.values[this.size++] = ((Number) row).longValue();
+            }
+            return message;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+
+    /**
+     * Fills a growable {@code int[]} with single column rows.
+     */
+    static final class Ints extends PrimitiveResultHandler {
+
+        private int[] values = new int[64];
+
+        private int size;
+
+        @Override
+        String store(Object row) {
+            String message = checkInt(row, "value");
+            if (message == null) {
+                if (this.size == this.values.length) {
+                    this.values = Arrays.copyOf(this.values, this.size << 1);
+                }
+                this.values[this.size++] = ((Number) row).intValue();
+            }
+            return message;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(this.values, this.size);
+        }
+    }
+
+    /**
+     * Fills a {@code LongIntMap} with the key and value properties of every row. Map rows are read
+     * directly, other rows through their {@code MetaObject}.
+     */
+    static final class IntMap extends PrimitiveResultHandler {
+
+        private final Configuration configuration;
+
+        private final String keyProperty;
+
+        private final String valueProperty;
+
+        private final LongIntMap map = new LongIntMap();
+
+        IntMap(Configuration configuration, String keyProperty, String valueProperty) {
+            this.configuration = configuration;
+            this.keyProperty = keyProperty;
+            this.valueProperty = valueProperty;
+        }
+
+        @Override
+        String store(Object row) {
+            if (row == null) {
+                return "returned a null row";
+            }
+            Object key;
+            Object value;
+            if (row instanceof Map) {
+                key = ((Map<?, ?>) row).get(this.keyProperty);
+                value = ((Map<?, ?>) row).get(this.valueProperty);
+            } else {
+                MetaObject metaObject = this.configuration.newMetaObject(row);
+                key = metaObject.getValue(this.keyProperty);
+                value = metaObject.getValue(this.valueProperty);
+            }
+            String message = checkLong(key, "'" + this.keyProperty + "'");
+            if (message == null) {
+                message = checkInt(value, "'" + this.valueProperty + "'");
+            }
+            if (message == null) {
+                this.map.put(((Number) key).longValue(), ((Number) value).intValue());
+            }
+            return message;
+        }
+
+        LongIntMap getMap() {
+            return this.map;
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+/**
+ * Tells {@code RoutingSqlSessionTemplate} how to pick the replica a SELECT statement is sent to.
+ *
+ * @see RoutingSqlSessionTemplate#setReplicaSelection(ReplicaSelection)
+ * @since 2.0.2
+ */
+public enum ReplicaSelection {
+
+    /**
+     * Use every replica in turn. This is the default.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * Use the replica running the fewest calls of this template at the moment, the first one
+     * winning ties.
+     */
+    LEAST_IN_FLIGHT
+
+}
@@ -0,0 +1,598 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notEmpty;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.metrics.SqlSessionMetrics;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * {@code SqlSessionTemplate} that runs the writes on a primary {@code SqlSessionFactory} and sends
+ * the SELECT statements to replica factories, so one set of mappers can use both. Every factory
+ * must have the same statements (and plugins) configured.
+ * <p>
+ * A SELECT goes to a replica when no Spring transaction is active or when the current one is
+ * read-only. It stays on the primary when:
+ * <ul>
+ * <li>a read-write Spring transaction is active, or a unit of work holds a primary session</li>
+ * <li>a write of the current thread through this template was committed less than
+ * {@code readYourWritesMillis} ago, so it reads its own writes even if the replicas lag behind.
+ * The window starts when the Spring transaction or the unit of work of the write commits.</li>
+ * <li>it is a callable statement, which may write</li>
+ * </ul>
+ * All the SELECT statements of a read-only transaction go to the same replica.
+ * Other settings like the {@code SqlSessionMetrics} and the batch loaders are applied to the
+ * replicas as well. Write-behind statements only apply to the primary, which runs every write,
+ * and the chunks of {@code selectListInChunks} are routed one by one like any other SELECT.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionTemplate" class="org.mybatis.spring.RoutingSqlSessionTemplate">
+ *   <constructor-arg ref="primarySqlSessionFactory" />
+ *   <constructor-arg>
+ *     <list>
+ *       <ref bean="replica1SqlSessionFactory" />
+ *       <ref bean="replica2SqlSessionFactory" />
+ *     </list>
+ *   </constructor-arg>
+ *   <property name="replicaSelection" value="LEAST_IN_FLIGHT" />
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see ReplicaSelection
+ * @since 2.0.2
+ */
+public class RoutingSqlSessionTemplate extends SqlSessionTemplate {
+
+    private final List<SqlSessionTemplate> replicas;
+
+    private final AtomicIntegerArray inFlight;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final ThreadLocal<Long> lastWrite = new ThreadLocal<>();
+
+    private final ThreadLocal<Boolean> unitOfWorkWritten = new ThreadLocal<>();
+
+    private final Object writeSynchronizationKey = new Object();
+
+    private ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+
+    private long readYourWritesNanos = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Constructs a routing template with the default executor type of the primary factory.
+     *
+     * @param primary the factory running the writes and the transactional reads
+     * @param replicas the factories running the other reads
+     */
+    public RoutingSqlSessionTemplate(SqlSessionFactory primary, List<SqlSessionFactory> replicas) {
+        this(primary, primary.getConfiguration().getDefaultExecutorType(), replicas);
+    }
+
+    /**
+     * Constructs a routing template with the given executor type for every factory.
+     *
+     * @param primary the factory running the writes and the transactional reads
+     * @param executorType an executor type on session
+     * @param replicas the factories running the other reads
+     */
+    public RoutingSqlSessionTemplate(SqlSessionFactory primary, ExecutorType executorType, List<SqlSessionFactory> replicas) {
+        super(primary, executorType);
+        notEmpty(replicas, "Property 'replicas' is required");
+
+        List<SqlSessionTemplate> templates = new ArrayList<>(replicas.size());
+        for (SqlSessionFactory replica : replicas) {
+            notNull(replica, "Property 'replicas' must not contain null");
+            templates.add(new SqlSessionTemplate(replica, executorType));
+        }
+        this.replicas = Collections.unmodifiableList(templates);
+        this.inFlight = new AtomicIntegerArray(templates.size());
+    }
+
+    public List<SqlSessionTemplate> getReplicas() {
+        return this.replicas;
+    }
+
+    public ReplicaSelection getReplicaSelection() {
+        return this.replicaSelection;
+    }
+
+    /**
+     * Sets how the replica a SELECT is sent to is picked. Defaults to round-robin.
+     *
+     * @param replicaSelection a replica selection
+     */
+    public void setReplicaSelection(ReplicaSelection replicaSelection) {
+        notNull(replicaSelection, "Property 'replicaSelection' is required");
+        this.replicaSelection = replicaSelection;
+    }
+
+    /**
+     * Sets how long the SELECT statements of a thread stay on the primary after a write it made
+     * through this template was committed. Defaults to one second, 0 disables it.
+     *
+     * @param readYourWritesMillis the read-your-writes window in milliseconds
+     */
+    public void setReadYourWritesMillis(long readYourWritesMillis) {
+        isTrue(readYourWritesMillis >= 0, "Property 'readYourWritesMillis' must be positive");
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSelectCompletionPolicy(SelectCompletionPolicy selectCompletionPolicy) {
+        super.setSelectCompletionPolicy(selectCompletionPolicy);
+        this.replicas.forEach(replica -> replica.setSelectCompletionPolicy(selectCompletionPolicy));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSqlSessionMetrics(SqlSessionMetrics sqlSessionMetrics) {
+        super.setSqlSessionMetrics(sqlSessionMetrics);
+        this.replicas.forEach(replica -> replica.setSqlSessionMetrics(sqlSessionMetrics));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSingleFlightStatements(Collection<String> singleFlightStatements) {
+        super.setSingleFlightStatements(singleFlightStatements);
+        this.replicas.forEach(replica -> replica.setSingleFlightStatements(singleFlightStatements));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every replica gets copies of the loaders, so a batch only holds the keys of calls running on
+     * its own factory.
+     */
+    @Override
+    public void setBatchLoaders(Collection<BatchLoader> batchLoaders) {
+        super.setBatchLoaders(batchLoaders);
+        this.replicas.forEach(replica -> replica.setBatchLoaders(BatchLoader.copyOf(batchLoaders)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T selectOne(String statement) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectOne(statement) : onReplica(replica, r -> r.selectOne(statement));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T selectOne(String statement, Object parameter) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectOne(statement, parameter) : onReplica(replica, r -> r.selectOne(statement, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T selectOne(StatementHandle handle, Object parameter) {
+        int replica = replicaFor(handle.getId());
+        return replica < 0 ? super.selectOne(handle, parameter) : onReplica(replica, r -> r.selectOne(handle.getId(), parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E> List<E> selectList(StatementHandle handle, Object parameter, RowBounds rowBounds) {
+        int replica = replicaFor(handle.getId());
+        return replica < 0 ? super.selectList(handle, parameter, rowBounds)
+                : onReplica(replica, r -> r.selectList(handle.getId(), parameter, rowBounds));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, String mapKey) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectMap(statement, mapKey) : onReplica(replica, r -> r.selectMap(statement, mapKey));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectMap(statement, parameter, mapKey)
+                : onReplica(replica, r -> r.selectMap(statement, parameter, mapKey));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectMap(statement, parameter, mapKey, rowBounds)
+                : onReplica(replica, r -> r.selectMap(statement, parameter, mapKey, rowBounds));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A replica cursor counts as in flight only while it is being opened.
+     */
+    @Override
+    public <T> Cursor<T> selectCursor(String statement) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectCursor(statement) : onReplica(replica, r -> r.selectCursor(statement));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectCursor(statement, parameter) : onReplica(replica, r -> r.selectCursor(statement, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectCursor(statement, parameter, rowBounds)
+                : onReplica(replica, r -> r.selectCursor(statement, parameter, rowBounds));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E> List<E> selectList(String statement) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectList(statement) : onReplica(replica, r -> r.selectList(statement));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectList(statement, parameter) : onReplica(replica, r -> r.selectList(statement, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
+        int replica = replicaFor(statement);
+        return replica < 0 ? super.selectList(statement, parameter, rowBounds)
+                : onReplica(replica, r -> r.selectList(statement, parameter, rowBounds));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void select(String statement, ResultHandler handler) {
+        select(statement, null, RowBounds.DEFAULT, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void select(String statement, Object parameter, ResultHandler handler) {
+        select(statement, parameter, RowBounds.DEFAULT, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
+        int replica = replicaFor(statement);
+        if (replica < 0) {
+            super.select(statement, parameter, rowBounds, handler);
+        } else {
+            onReplica(replica, r -> {
+                r.select(statement, parameter, rowBounds, handler);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int insert(String statement) {
+        return written(super.insert(statement));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int insert(String statement, Object parameter) {
+        return written(super.insert(statement, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int update(String statement) {
+        return written(super.update(statement));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int update(String statement, Object parameter) {
+        return written(super.update(statement, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int delete(String statement) {
+        return written(super.delete(statement));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int delete(String statement, Object parameter) {
+        return written(super.delete(statement, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int insert(StatementHandle handle, Object parameter) {
+        return written(super.insert(handle, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int update(StatementHandle handle, Object parameter) {
+        return written(super.update(handle, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int delete(StatementHandle handle, Object parameter) {
+        return written(super.delete(handle, parameter));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long insertAll(String statement, Collection<?> parameters) {
+        return written(super.insertAll(statement, parameters));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long upsertAll(String statement, Collection<?> parameters) {
+        return written(super.upsertAll(statement, parameters));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long upsertAll(String updateStatement, String insertStatement, Collection<?> parameters) {
+        return written(super.upsertAll(updateStatement, insertStatement, parameters));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The read-your-writes window of the writes of the unit of work starts once it commits.
+     */
+    @Override
+    public <T> T execute(SqlSessionCallback<T> action) {
+        if (isSqlSessionHolderBound() || TransactionSynchronizationManager.isSynchronizationActive()) {
+            return super.execute(action);
+        }
+        try {
+            T result = super.execute(action);
+            if (this.unitOfWorkWritten.get() != null) {
+                this.lastWrite.set(System.nanoTime());
+            }
+            return result;
+        } finally {
+            this.unitOfWorkWritten.remove();
+        }
+    }
+
+    /**
+     * Opens the read-your-writes window of the current thread.
+     */
+    private int written(int rowCount) {
+        written();
+        return rowCount;
+    }
+
+    private long written(long rowCount) {
+        written();
+        return rowCount;
+    }
+
+    /**
+     * Opens the window once the write is visible to other sessions: when the Spring transaction
+     * or the unit of work of the write commits, or right away for a non transactional write.
+     */
+    private void written() {
+        if (this.readYourWritesNanos <= 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (TransactionSynchronizationManager.getResource(this.writeSynchronizationKey) == null) {
+                WriteSynchronization synchronization = new WriteSynchronization();
+                TransactionSynchronizationManager.bindResource(this.writeSynchronizationKey, synchronization);
+                TransactionSynchronizationManager.registerSynchronization(synchronization);
+            }
+        } else if (isSqlSessionHolderBound()) {
+            this.unitOfWorkWritten.set(Boolean.TRUE);
+        } else {
+            this.lastWrite.set(System.nanoTime());
+        }
+    }
+
+    /**
+     * Picks the replica the statement is sent to.
+     *
+     * @return the index of the replica, or {@code -1} to run it on the primary
+     */
+    private int replicaFor(String statement) {
+        if (isSqlSessionHolderBound()
+                || (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly())) {
+            return -1;
+        }
+        Long lastWrite = this.lastWrite.get();
+        if (lastWrite != null) {
+            if (System.nanoTime() - lastWrite < this.readYourWritesNanos) {
+                return -1;
+            }
+            this.lastWrite.remove();
+        }
+        MappedStatement ms = getConfiguration().getMappedStatement(statement, false);
+        if (ms == null || ms.getSqlCommandType() != SqlCommandType.SELECT || ms.getStatementType() == StatementType.CALLABLE) {
+            // unknown statements fail on the primary
+            return -1;
+        }
+        int count = this.replicas.size();
+        if (count == 1) {
+            return 0;
+        } else if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // keep reading from the replica whose session is already bound to the transaction
+            for (int i = 0; i < count; i++) {
+                if (this.replicas.get(i).isSqlSessionHolderBound()) {
+                    return i;
+                }
+            }
+        }
+        if (this.replicaSelection == ReplicaSelection.LEAST_IN_FLIGHT) {
+            int least = 0;
+            for (int i = 1; i < count; i++) {
+                if (this.inFlight.get(i) < this.inFlight.get(least)) {
+                    least = i;
+                }
+            }
+            return least;
+        }
+        return (this.nextReplica.getAndIncrement() & Integer.MAX_VALUE) % count;
+    }
+
+    private <T> T onReplica(int replica, Function<SqlSessionTemplate, T> call) {
+        this.inFlight.incrementAndGet(replica);
+        try {
+            return call.apply(this.replicas.get(replica));
+        } finally {
+            this.inFlight.decrementAndGet(replica);
+        }
+    }
+
+    /**
+     * Opens the read-your-writes window of the current thread when the transaction that wrote
+     * commits. Bound to the transaction so it is registered once.
+     */
+    private final class WriteSynchronization extends TransactionSynchronizationAdapter {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(writeSynchronizationKey);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(writeSynchronizationKey, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void afterCommit() {
+            lastWrite.set(System.nanoTime());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(writeSynchronizationKey);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+/**
+ * Tells {@code SqlSessionTemplate} how to complete a non transactional {@code SqlSession}
+ * that only ran a SELECT statement.
+ *
+ * @see SqlSessionTemplate#setSelectCompletionPolicy(SelectCompletionPolicy)
+ * @since 2.0.2
+ */
+public enum SelectCompletionPolicy {
+
+    /**
+     * Force a commit before closing the session, like any other statement. Some databases
+     * require a commit/rollback before calling close(). This is the default.
+     */
+    FORCE_COMMIT,
+
+    /**
+     * Close the session without committing. The session is not dirty after a SELECT so MyBatis
+     * does not roll it back either, and the connection is returned to the pool as is. This saves
+     * one round trip per read on {@code autoCommit=false} pools, but the pool (or the driver)
+     * must accept connections being returned with an open read-only transaction.
+     */
+    RELEASE
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * Resolves the shard a {@link ShardedSqlSessionTemplate} call runs on.
+ *
+ * @see ShardedSqlSessionTemplate#setShardResolver(ShardResolver)
+ * @since 2.0.2
+ */
+@FunctionalInterface
+public interface ShardResolver {
+
+    /**
+     * Resolves the shard of a call.
+     *
+     * @param statement the statement id
+     * @param parameter the parameter of the call, as passed to the template
+     * @param shardCount the number of shards
+     * @return the index of the shard, from {@code 0} to {@code shardCount - 1}, or {@code null}
+     * to run a SELECT statement on every shard
+     */
+    Integer resolveShard(String statement, Object parameter, int shardCount);
+
+    /**
+     * Returns a resolver reading the shard key from a property of the parameter. Integral keys are
+     * mapped to shard {@code key mod shardCount}, other keys by their hash code. A {@code null} key,
+     * or a parameter without the property, runs SELECT statements on every shard.
+     *
+     * @param configuration the configuration used to read the parameter
+     * @param property the property holding the shard key, it may be nested like {@code order.customerId}
+     * @return a resolver
+     */
+    static ShardResolver byProperty(Configuration configuration, String property) {
+        return byProperty(configuration, property, Collections.emptySet());
+    }
+
+    /**
+     * Returns a resolver reading the shard key from a property of the parameter, or using the
+     * parameter itself when it is a single value like a {@code Long} and the statement is one of
+     * {@code keyParameterStatements}. A single value passed to any other statement is not a shard key,
+     * as nothing tells what it holds, so SELECT statements run on every shard.
+     *
+     * @param configuration the configuration used to read the parameter
+     * @param property the property holding the shard key, it may be nested like {@code order.customerId}
+     * @param keyParameterStatements the ids of the statements, including their namespace, whose single
+     *                               value parameter is the shard key
+     * @return a resolver
+     * @see #byProperty(Configuration, String)
+     */
+    static ShardResolver byProperty(Configuration configuration, String property, Collection<String> keyParameterStatements) {
+        Set<String> keyStatements = new HashSet<>(keyParameterStatements);
+        return (statement, parameter, shardCount) -> {
+            Object key;
+            if (parameter == null || parameter instanceof Collection || parameter.getClass().isArray()) {
+                return null;
+            } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameter.getClass())) {
+                key = keyStatements.contains(statement) ? parameter : null;
+            } else {
+                MetaObject metaObject = configuration.newMetaObject(parameter);
+                key = metaObject.hasGetter(property) ? metaObject.getValue(property) : null;
+            }
+            if (key == null) {
+                return null;
+            } else if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+                return (int) Math.floorMod(((Number) key).longValue(), (long) shardCount);
+            }
+            return Math.floorMod(key.hashCode(), shardCount);
+        };
+    }
+
+}
@@ -0,0 +1,732 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import static org.springframework.util.Assert.isNull;
+import static org.springframework.util.Assert.notEmpty;
+import static org.springframework.util.Assert.notNull;
+import static org.springframework.util.Assert.state;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.TooManyResultsException;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.bulkhead.Bulkhead;
+import org.mybatis.spring.metrics.SqlSessionMetrics;
+import org.mybatis.spring.statement.Deadline;
+import org.mybatis.spring.statement.DeadlineHolder;
+import org.mybatis.spring.statement.StatementOptions;
+import org.mybatis.spring.statement.StatementOptionsHolder;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * {@code SqlSessionTemplate} over several {@code SqlSessionFactory} shards holding the same
+ * tables. Every call is run by the template of the shard its {@link ShardResolver} picks from the
+ * statement and its parameter, so sessions are bound per shard factory by {@code SqlSessionUtils}
+ * and join Spring transactions like any other template. Every shard must have the same statements
+ * (and plugins) configured; {@code MapperFactoryBean} adds its mapper to all of them.
+ * <p>
+ * A SELECT without a shard key runs on every shard and the results are merged in shard order.
+ * With a {@code fanOutExecutor} the shards are queried in parallel, except inside a Spring
+ * transaction or a unit of work whose sessions are bound to the calling thread. Writes and cursors
+ * always need a shard key.
+ * <p>
+ * Settings like the {@code SqlSessionMetrics}, the batch loaders and the write-behind statements
+ * are applied to every shard. The chunks of {@code selectListInChunks} are resolved to their shard
+ * one by one like any other SELECT.
+ * <p>
+ * It can be used wherever a {@code SqlSessionTemplate} is accepted, like
+ * {@code MapperFactoryBean#setSqlSessionTemplate} or the {@code sqlSessionTemplateRef} of
+ * {@code @MapperScan}, so mapper interfaces stay unchanged.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionTemplate" class="org.mybatis.spring.ShardedSqlSessionTemplate">
+ *   <constructor-arg>
+ *     <list>
+ *       <ref bean="shard0SqlSessionFactory" />
+ *       <ref bean="shard1SqlSessionFactory" />
+ *     </list>
+ *   </constructor-arg>
+ *   <property name="shardKeyProperty" value="customerId" />
+ *   <property name="shardKeyParameterStatements">
+ *     <list>
+ *       <value>com.example.OrderMapper.selectByCustomerId</value>
+ *     </list>
+ *   </property>
+ *   <property name="fanOutExecutor" ref="taskExecutor" />
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see ShardResolver
+ * @since 2.0.2
+ */
+public class ShardedSqlSessionTemplate extends SqlSessionTemplate {
+
+    private final List<SqlSessionTemplate> shards;
+
+    private ShardResolver shardResolver;
+
+    private String shardKeyProperty;
+
+    private Collection<String> shardKeyParameterStatements = Collections.emptySet();
+
+    private Executor fanOutExecutor;
+
+    /**
+     * Constructs a sharded template with the default executor type of the first shard.
+     *
+     * @param shards the factories of the shards, in shard index order
+     */
+    public ShardedSqlSessionTemplate(List<SqlSessionFactory> shards) {
+        this(shards, firstShard(shards).getConfiguration().getDefaultExecutorType());
+    }
+
+    /**
+     * Constructs a sharded template with the given executor type for every shard.
+     *
+     * @param shards the factories of the shards, in shard index order
+     * @param executorType an executor type on session
+     */
+    public ShardedSqlSessionTemplate(List<SqlSessionFactory> shards, ExecutorType executorType) {
+        super(firstShard(shards), executorType);
+
+        List<SqlSessionTemplate> templates = new ArrayList<>(shards.size());
+        for (SqlSessionFactory shard : shards) {
+            notNull(shard, "Property 'shards' must not contain null");
+            templates.add(new SqlSessionTemplate(shard, executorType));
+        }
+        this.shards = Collections.unmodifiableList(templates);
+    }
+
+    private static SqlSessionFactory firstShard(List<SqlSessionFactory> shards) {
+        notEmpty(shards, "Property 'shards' is required");
+        return shards.get(0);
+    }
+
+    public List<SqlSessionTemplate> getShards() {
+        return this.shards;
+    }
+
+    public ShardResolver getShardResolver() {
+        return this.shardResolver;
+    }
+
+    /**
+     * Sets the resolver picking the shard of every call.
+     *
+     * @param shardResolver a shard resolver
+     */
+    public void setShardResolver(ShardResolver shardResolver) {
+        notNull(shardResolver, "Property 'shardResolver' is required");
+        this.shardResolver = shardResolver;
+    }
+
+    /**
+     * Picks the shard of every call from a property of its parameter.
+     *
+     * @param shardKeyProperty the property holding the shard key
+     * @see ShardResolver#byProperty(org.apache.ibatis.session.Configuration, String, Collection)
+     */
+    public void setShardKeyProperty(String shardKeyProperty) {
+        notNull(shardKeyProperty, "Property 'shardKeyProperty' is required");
+        this.shardKeyProperty = shardKeyProperty;
+        this.shardResolver = ShardResolver.byProperty(getConfiguration(), shardKeyProperty, this.shardKeyParameterStatements);
+    }
+
+    /**
+     * Sets the statements whose parameter is the shard key itself when it is a single value like a
+     * {@code Long}, e.g. {@code com.example.OrderMapper.selectByCustomerId}. A single value passed to
+     * any other statement is not used as the shard key. Only used with a {@code shardKeyProperty}.
+     *
+     * @param shardKeyParameterStatements the ids of the statements, including their namespace
+     * @see ShardResolver#byProperty(org.apache.ibatis.session.Configuration, String, Collection)
+     */
+    public void setShardKeyParameterStatements(Collection<String> shardKeyParameterStatements) {
+        notNull(shardKeyParameterStatements, "Property 'shardKeyParameterStatements' is required");
+        this.shardKeyParameterStatements = shardKeyParameterStatements;
+        if (this.shardKeyProperty != null) {
+            this.shardResolver = ShardResolver.byProperty(getConfiguration(), this.shardKeyProperty, shardKeyParameterStatements);
+        }
+    }
+
+    public Executor getFanOutExecutor() {
+        return this.fanOutExecutor;
+    }
+
+    /**
+     * Sets the executor querying the shards in parallel when a SELECT runs on every shard. They are
+     * queried one after the other on the calling thread by default.
+     *
+     * @param fanOutExecutor the executor of the shard queries
+     */
+    public void setFanOutExecutor(Executor fanOutExecutor) {
+        this.fanOutExecutor = fanOutExecutor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSelectCompletionPolicy(SelectCompletionPolicy selectCompletionPolicy) {
+        super.setSelectCompletionPolicy(selectCompletionPolicy);
+        this.shards.forEach(shard -> shard.setSelectCompletionPolicy(selectCompletionPolicy));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSqlSessionMetrics(SqlSessionMetrics sqlSessionMetrics) {
+        super.setSqlSessionMetrics(sqlSessionMetrics);
+        this.shards.forEach(shard -> shard.setSqlSessionMetrics(sqlSessionMetrics));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSingleFlightStatements(Collection<String> singleFlightStatements) {
+        super.setSingleFlightStatements(singleFlightStatements);
+        this.shards.forEach(shard -> shard.setSingleFlightStatements(singleFlightStatements));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every shard gets copies of the loaders, so a batch only holds the keys of calls running on
+     * its own factory.
+     */
+    @Override
+    public void setBatchLoaders(Collection<BatchLoader> batchLoaders) {
+        super.setBatchLoaders(batchLoaders);
+        this.shards.forEach(shard -> shard.setBatchLoaders(BatchLoader.copyOf(batchLoaders)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWriteBehindStatements(Collection<String> writeBehindStatements) {
+        super.setWriteBehindStatements(writeBehindStatements);
+        this.shards.forEach(shard -> shard.setWriteBehindStatements(writeBehindStatements));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setWriteBehindFlushSize(int writeBehindFlushSize) {
+        super.setWriteBehindFlushSize(writeBehindFlushSize);
+        this.shards.forEach(shard -> shard.setWriteBehindFlushSize(writeBehindFlushSize));
+    }
+
+    /**
+     * Not supported: a bulkhead guards the connections of a single factory, set one on each shard
+     * template instead, see {@link #getShards()}.
+     *
+     * @throws IllegalArgumentException if the bulkhead is not {@code null}
+     */
+    @Override
+    public void setBulkhead(Bulkhead bulkhead) {
+        isNull(bulkhead, "Property 'bulkhead' must be set on each shard template, see getShards()");
+    }
+
+    /**
+     * Returns the configuration of the first shard. Every shard must have the same mappings, so it
+     * describes the statements of every shard.
+     */
+    @Override
+    public Configuration getConfiguration() {
+        return this.shards.get(0).getConfiguration();
+    }
+
+    /**
+     * Not supported: every shard has its own connection, see {@link #getShards()}.
+     */
+    @Override
+    public Connection getConnection() {
+        throw new UnsupportedOperationException("A sharded template has no connection of its own, use the one of a shard");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The unit of work spans every shard. A shard only borrows a connection once it is used.
+     */
+    @Override
+    public <T> T execute(SqlSessionCallback<T> action) {
+        notNull(action, "Parameter 'action' must be not null");
+        return executeFrom(0, action);
+    }
+
+    private <T> T executeFrom(int shard, SqlSessionCallback<T> action) {
+        if (shard == this.shards.size()) {
+            return action.doInSqlSession(this);
+        }
+        return this.shards.get(shard).execute(sqlSession -> executeFrom(shard + 1, action));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T selectOne(String statement) {
+        return selectOne(statement, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T selectOne(String statement, Object parameter) {
+        Integer shard = resolveShard(statement, parameter);
+        if (shard != null) {
+            return this.shards.get(shard).selectOne(statement, parameter);
+        }
+        T result = null;
+        int count = 0;
+        for (T shardResult : this.<T>fanOut(s -> s.selectOne(statement, parameter))) {
+            if (shardResult != null) {
+                result = shardResult;
+                count++;
+            }
+        }
+        if (count > 1) {
+            // same as DefaultSqlSession#selectOne
+            throw translate(new TooManyResultsException(
+                    "Expected one result (or null) to be returned by selectOne(), but found: " + count));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, String mapKey) {
+        return selectMap(statement, null, mapKey, RowBounds.DEFAULT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey) {
+        return selectMap(statement, parameter, mapKey, RowBounds.DEFAULT);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Row bounds cannot be used when the statement runs on every shard.
+     */
+    @Override
+    public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
+        Integer shard = resolveShard(statement, parameter);
+        if (shard != null) {
+            return this.shards.get(shard).selectMap(statement, parameter, mapKey, rowBounds);
+        }
+        requireDefaultRowBounds(statement, rowBounds);
+        Map<K, V> result = new HashMap<>();
+        for (Map<K, V> shardResult : this.<Map<K, V>>fanOut(s -> s.selectMap(statement, parameter, mapKey))) {
+            result.putAll(shardResult);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Cursor<T> selectCursor(String statement) {
+        return selectCursor(statement, null, RowBounds.DEFAULT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter) {
+        return selectCursor(statement, parameter, RowBounds.DEFAULT);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Cursors need a shard key.
+     */
+    @Override
+    public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
+        return this.shards.get(requireShard(statement, parameter)).selectCursor(statement, parameter, rowBounds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E> List<E> selectList(String statement) {
+        return selectList(statement, null, RowBounds.DEFAULT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter) {
+        return selectList(statement, parameter, RowBounds.DEFAULT);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When the statement runs on every shard, each shard returns up to {@code offset + limit} rows
+     * and the row bounds are applied to the merged rows.
+     */
+    @Override
+    public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
+        Integer shard = resolveShard(statement, parameter);
+        if (shard != null) {
+            return this.shards.get(shard).selectList(statement, parameter, rowBounds);
+        }
+        RowBounds shardRowBounds = rowBounds == RowBounds.DEFAULT ? RowBounds.DEFAULT
+                : new RowBounds(RowBounds.NO_ROW_OFFSET, (int) Math.min(Integer.MAX_VALUE, (long) rowBounds.getOffset() + rowBounds.getLimit()));
+        List<E> result = new ArrayList<>();
+        for (List<E> shardResult : this.<List<E>>fanOut(s -> s.selectList(statement, parameter, shardRowBounds))) {
+            result.addAll(shardResult);
+        }
+        if (rowBounds == RowBounds.DEFAULT) {
+            return result;
+        }
+        int from = Math.min(rowBounds.getOffset(), result.size());
+        int to = (int) Math.min(result.size(), (long) from + rowBounds.getLimit());
+        return new ArrayList<>(result.subList(from, to));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void select(String statement, ResultHandler handler) {
+        select(statement, null, RowBounds.DEFAULT, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void select(String statement, Object parameter, ResultHandler handler) {
+        select(statement, parameter, RowBounds.DEFAULT, handler);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When the statement runs on every shard, the shards are queried one after the other on the
+     * calling thread so the handler is never called concurrently. Row bounds cannot be used then.
+     */
+    @Override
+    public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
+        Integer shard = resolveShard(statement, parameter);
+        if (shard != null) {
+            this.shards.get(shard).select(statement, parameter, rowBounds, handler);
+            return;
+        }
+        requireDefaultRowBounds(statement, rowBounds);
+        for (SqlSessionTemplate template : this.shards) {
+            template.select(statement, parameter, handler);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int insert(String statement) {
+        return insert(statement, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int insert(String statement, Object parameter) {
+        return this.shards.get(requireShard(statement, parameter)).insert(statement, parameter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int update(String statement) {
+        return update(statement, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int update(String statement, Object parameter) {
+        return this.shards.get(requireShard(statement, parameter)).update(statement, parameter);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int delete(String statement) {
+        return delete(statement, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int delete(String statement, Object parameter) {
+        return this.shards.get(requireShard(statement, parameter)).delete(statement, parameter);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The statement is resolved with the configuration of the first shard.
+     */
+    @Override
+    public StatementHandle getStatementHandle(String statement) {
+        return this.shards.get(0).getStatementHandle(statement);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The statement is resolved with the configuration of the first shard.
+     */
+    @Override
+    public StatementHandle getStatementHandle(Class<?> mapperInterface, String methodName) {
+        return this.shards.get(0).getStatementHandle(mapperInterface, methodName);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Handles are run by statement id as every shard has its own configuration.
+     */
+    @Override
+    public <T> T selectOne(StatementHandle handle, Object parameter) {
+        return selectOne(handle.getId(), parameter);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Handles are run by statement id as every shard has its own configuration.
+     */
+    @Override
+    public <E> List<E> selectList(StatementHandle handle, Object parameter, RowBounds rowBounds) {
+        return selectList(handle.getId(), parameter, rowBounds);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Handles are run by statement id as every shard has its own configuration.
+     */
+    @Override
+    public int insert(StatementHandle handle, Object parameter) {
+        return insert(handle.getId(), parameter);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Handles are run by statement id as every shard has its own configuration.
+     */
+    @Override
+    public int update(StatementHandle handle, Object parameter) {
+        return update(handle.getId(), parameter);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Handles are run by statement id as every shard has its own configuration.
+     */
+    @Override
+    public int delete(StatementHandle handle, Object parameter) {
+        return delete(handle.getId(), parameter);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every row is sent to the shard of its shard key, the shards are written one after the other.
+     */
+    @Override
+    public long insertAll(String statement, Collection<?> parameters) {
+        return writeAll(statement, parameters, (template, rows) -> template.insertAll(statement, rows));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every row is sent to the shard of its shard key, the shards are written one after the other.
+     */
+    @Override
+    public long upsertAll(String statement, Collection<?> parameters) {
+        return writeAll(statement, parameters, (template, rows) -> template.upsertAll(statement, rows));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every row is sent to the shard of its shard key, resolved with the update statement, the
+     * shards are written one after the other.
+     */
+    @Override
+    public long upsertAll(String updateStatement, String insertStatement, Collection<?> parameters) {
+        return writeAll(updateStatement, parameters,
+                (template, rows) -> template.upsertAll(updateStatement, insertStatement, rows));
+    }
+
+    private long writeAll(String statement, Collection<?> parameters, BiFunction<SqlSessionTemplate, List<Object>, Long> write) {
+        notNull(parameters, "Parameter 'parameters' must be not null");
+        List<List<Object>> rowsByShard = new ArrayList<>(this.shards.size());
+        for (int i = 0; i < this.shards.size(); i++) {
+            rowsByShard.add(new ArrayList<>());
+        }
+        for (Object parameter : parameters) {
+            rowsByShard.get(requireShard(statement, parameter)).add(parameter);
+        }
+        long rowCount = 0;
+        for (int i = 0; i < this.shards.size(); i++) {
+            if (!rowsByShard.get(i).isEmpty()) {
+                rowCount += write.apply(this.shards.get(i), rowsByShard.get(i));
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Clears the local cache of every shard.
+     */
+    @Override
+    public void clearCache() {
+        this.shards.forEach(SqlSessionTemplate::clearCache);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Flushes every shard, in shard order.
+     */
+    @Override
+    public List<BatchResult> flushStatements() {
+        List<BatchResult> results = new ArrayList<>();
+        for (SqlSessionTemplate template : this.shards) {
+            results.addAll(template.flushStatements());
+        }
+        return results;
+    }
+
+    private Integer resolveShard(String statement, Object parameter) {
+        state(this.shardResolver != null, "Property 'shardResolver' or 'shardKeyProperty' is required");
+        Integer shard = this.shardResolver.resolveShard(statement, parameter, this.shards.size());
+        state(shard == null || (shard >= 0 && shard < this.shards.size()),
+                () -> "Shard " + shard + " resolved for statement '" + statement + "' does not exist");
+        return shard;
+    }
+
+    private int requireShard(String statement, Object parameter) {
+        Integer shard = resolveShard(statement, parameter);
+        if (shard == null) {
+            throw new InvalidDataAccessApiUsageException("No shard key found for statement '" + statement
+                    + "', only SELECT statements returning lists, maps or single objects can run on every shard");
+        }
+        return shard;
+    }
+
+    private static void requireDefaultRowBounds(String statement, RowBounds rowBounds) {
+        if (rowBounds != RowBounds.DEFAULT) {
+            throw new InvalidDataAccessApiUsageException(
+                    "Row bounds cannot be used with statement '" + statement + "' because it runs on every shard");
+        }
+    }
+
+    /**
+     * Runs the call on every shard, in parallel if possible.
+     *
+     * @return the results of the call in shard order
+     */
+    private <T> List<T> fanOut(Function<SqlSessionTemplate, T> call) {
+        List<T> results = new ArrayList<>(this.shards.size());
+        if (this.fanOutExecutor == null || TransactionSynchronizationManager.isSynchronizationActive()
+                || this.shards.get(0).isSqlSessionHolderBound()) {
+            for (SqlSessionTemplate shard : this.shards) {
+                results.add(call.apply(shard));
+            }
+            return results;
+        }
+        // carry the statement options and the deadline of the calling thread over to the executor
+        StatementOptions statementOptions = StatementOptionsHolder.getStatementOptions();
+        Deadline deadline = DeadlineHolder.getDeadline();
+        List<CompletableFuture<T>> futures = new ArrayList<>(this.shards.size());
+        for (SqlSessionTemplate shard : this.shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> DeadlineHolder.callWith(deadline,
+                    () -> StatementOptionsHolder.callWith(statementOptions, () -> call.apply(shard))), this.fanOutExecutor));
+        }
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            // the shards not queried yet are skipped
+            futures.forEach(future -> future.cancel(false));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    private RuntimeException translate(RuntimeException e) {
+        RuntimeException translated = getPersistenceExceptionTranslator() == null ? null
+                : getPersistenceExceptionTranslator().translateExceptionIfPossible(e);
+        return translated == null ? e : translated;
+    }
+
+}
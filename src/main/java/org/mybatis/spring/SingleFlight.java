@@ -0,0 +1,218 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.mybatis.spring.statement.Deadline;
+import org.mybatis.spring.statement.DeadlineExceededException;
+import org.mybatis.spring.statement.DeadlineHolder;
+import org.springframework.dao.QueryTimeoutException;
+
+/**
+ * Shares one in-flight execution of a SELECT among the concurrent calls asking for the same
+ * {@code CacheKey}. The first caller runs the statement and every caller arriving while it runs
+ * waits for its result instead of borrowing a connection of its own. Each caller gets its own copy
+ * of the result list, but the mapped objects in it are shared.
+ * <p>
+ * Every caller keeps its own {@code Deadline}: a waiting caller gives up when its deadline passes,
+ * and runs the statement itself if the call it waited for failed on a timeout while a deadline
+ * was bound, as that deadline was not its own.
+ *
+ * @see SqlSessionTemplate#setSingleFlightStatements(java.util.Collection)
+ * @since 2.0.2
+ */
+final class SingleFlight {
+
+    private final Map<CacheKey, CompletableFuture<List<?>>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Builds the same {@code CacheKey} MyBatis uses for its local and 2nd level caches.
+     */
+    static CacheKey cacheKey(MappedStatement ms, Object parameter, RowBounds rowBounds) {
+        Configuration configuration = ms.getConfiguration();
+        Object parameterObject = wrapCollection(parameter);
+        BoundSql boundSql = ms.getBoundSql(parameterObject);
+        CacheKey cacheKey = new CacheKey();
+        cacheKey.update(ms.getId());
+        cacheKey.update(rowBounds.getOffset());
+        cacheKey.update(rowBounds.getLimit());
+        cacheKey.update(boundSql.getSql());
+        MetaObject metaObject = null;
+        for (ParameterMapping parameterMapping : boundSql.getParameterMappings()) {
+            if (parameterMapping.getMode() != ParameterMode.OUT) {
+                String property = parameterMapping.getProperty();
+                Object value;
+                if (boundSql.hasAdditionalParameter(property)) {
+                    value = boundSql.getAdditionalParameter(property);
+                } else if (parameterObject == null) {
+                    value = null;
+                } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+                    value = parameterObject;
+                } else {
+                    if (metaObject == null) {
+                        metaObject = configuration.newMetaObject(parameterObject);
+                    }
+                    value = metaObject.getValue(property);
+                }
+                cacheKey.update(value);
+            }
+        }
+        if (configuration.getEnvironment() != null) {
+            cacheKey.update(configuration.getEnvironment().getId());
+        }
+        return cacheKey;
+    }
+
+    /**
+     * Wraps collection and array parameters the same way {@code DefaultSqlSession} does.
+     */
+    private static Object wrapCollection(Object object) {
+        if (object instanceof Collection) {
+            DefaultSqlSession.StrictMap<Object> map = new DefaultSqlSession.StrictMap<>();
+            map.put("collection", object);
+            if (object instanceof List) {
+                map.put("list", object);
+            }
+            return map;
+        } else if (object != null && object.getClass().isArray()) {
+            DefaultSqlSession.StrictMap<Object> map = new DefaultSqlSession.StrictMap<>();
+            map.put("array", object);
+            return map;
+        }
+        return object;
+    }
+
+    /**
+     * Runs the call, or waits for the identical call already in flight.
+     *
+     * @param statement the statement id, for error messages
+     * @param cacheKey the key of the call
+     * @param call the call that runs the statement
+     * @param onCoalesced notified when the result of another call was reused
+     * @return the result of the call
+     */
+    @SuppressWarnings("unchecked")
+    <E> List<E> execute(String statement, CacheKey cacheKey, Supplier<List<E>> call, Runnable onCoalesced) {
+        CompletableFuture<List<?>> future = new CompletableFuture<>();
+        CompletableFuture<List<?>> leader = this.inFlight.putIfAbsent(cacheKey, future);
+        if (leader != null) {
+            List<E> result;
+            try {
+                result = (List<E>) await(leader, statement);
+            } catch (LeaderTimeoutException e) {
+                return call.get();
+            } catch (RuntimeException e) {
+                onCoalesced.run();
+                throw e;
+            }
+            onCoalesced.run();
+            return new ArrayList<>(result);
+        }
+        boolean deadlineBound = DeadlineHolder.currentDeadline() != null;
+        try {
+            List<E> result = call.get();
+            this.inFlight.remove(cacheKey, future);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            this.inFlight.remove(cacheKey, future);
+            if (deadlineBound && isTimeout(e)) {
+                future.completeExceptionally(new LeaderTimeoutException(e));
+            } else {
+                future.completeExceptionally(e instanceof RuntimeException ? e : new IllegalStateException(e));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the result of a call run by another thread, no longer than the deadline bound to the
+     * current thread. A failed call throws its exception, which is already translated.
+     */
+    private static <T> T await(CompletableFuture<T> future, String statement) {
+        Deadline deadline = DeadlineHolder.currentDeadline();
+        if (deadline == null) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw (RuntimeException) e.getCause();
+            }
+        }
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get(Math.max(0L, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw (RuntimeException) e.getCause();
+                } catch (TimeoutException e) {
+                    throw new DeadlineExceededException(
+                            "Deadline exceeded while waiting for statement '" + statement + "' run by another call");
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof QueryTimeoutException || cause instanceof SQLTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands the timeout of a call run with a deadline to the callers waiting for it, which run the
+     * statement again under their own deadline.
+     */
+    @SuppressWarnings("serial")
+    private static final class LeaderTimeoutException extends RuntimeException {
+
+        LeaderTimeoutException(Throwable cause) {
+            super(null, cause, false, false);
+        }
+
+    }
+
+}
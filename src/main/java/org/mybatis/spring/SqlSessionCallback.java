@@ -0,0 +1,43 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * Generic callback interface for code that runs a sequence of MyBatis calls as a single
+ * unit of work. Used by {@link SqlSessionTemplate#execute(SqlSessionCallback)}.
+ *
+ * @param <T> the result type of the callback
+ *
+ * @see SqlSessionTemplate#execute(SqlSessionCallback)
+ */
+@FunctionalInterface
+public interface SqlSessionCallback<T> {
+
+    /**
+     * Gets called by {@code SqlSessionTemplate.execute} with the Spring managed {@code SqlSession}.
+     * Every call made through this session, or through mappers got from it or from the same
+     * template, will share one underlying {@code SqlSession}.
+     * <p>
+     * The given {@code SqlSession} must not be committed, rolled back or closed by the callback.
+     *
+     * @param sqlSession the Spring managed SqlSession
+     * @return a result object, or {@code null} if none
+     */
+    T doInSqlSession(SqlSession sqlSession);
+
+}
@@ -43,6 +43,7 @@ import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.type.TypeHandler;
 import org.mybatis.logging.Logger;
 import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.leak.ResourceLeakTracker;
 import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
@@ -175,6 +176,8 @@ public class SqlSessionFactoryBean implements FactoryBean<SqlSessionFactory>, In
 
     private ObjectWrapperFactory objectWrapperFactory;
 
+    private ResourceLeakTracker resourceLeakTracker;
+
     /**
      * Sets the ObjectFactory.
      *
@@ -443,6 +446,18 @@ public class SqlSessionFactoryBean implements FactoryBean<SqlSessionFactory>, In
         this.environment = environment;
     }
 
+    /**
+     * Sets the tracker of the sessions and cursors opened with the built {@code SqlSessionFactory}
+     * and not closed yet.
+     *
+     * @param resourceLeakTracker a tracker of open sessions and cursors
+     * @since 2.0.2
+     * @see SqlSessionUtils#setResourceLeakTracker(SqlSessionFactory, ResourceLeakTracker)
+     */
+    public void setResourceLeakTracker(ResourceLeakTracker resourceLeakTracker) {
+        this.resourceLeakTracker = resourceLeakTracker;
+    }
+
     /**
      * 这个方法是实现了 {@link InitializingBean} 接口被调用，调用机制是 Bean 初始化的时候
      * 我们知道：mybatis 和 spring 结合的时候，都需要配置 {@link SqlSessionFactoryBean}，可能是 xml 配置，也可能是 java 配置
@@ -460,6 +475,9 @@ public class SqlSessionFactoryBean implements FactoryBean<SqlSessionFactory>, In
          * 创建一个 sqlSessionFactory 赋值给属性 sqlSessionFactory
          */
         this.sqlSessionFactory = buildSqlSessionFactory();
+        if (this.resourceLeakTracker != null) {
+            SqlSessionUtils.setResourceLeakTracker(this.sqlSessionFactory, this.resourceLeakTracker);
+        }
     }
 
     /**
@@ -17,6 +17,14 @@ package org.mybatis.spring;
 
 import static org.springframework.util.Assert.notNull;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.ibatis.cache.Cache;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
@@ -25,8 +33,9 @@ import org.springframework.transaction.support.ResourceHolderSupport;
 /**
  * Used to keep current {@code SqlSession} in {@code TransactionSynchronizationManager}.
  * The {@code SqlSessionFactory} that created that {@code SqlSession} is used as a key.
- * {@code ExecutorType} is also kept to be able to check if the user is trying to change it
- * during a TX (that is not allowed) and throw a Exception in that case.
+ * {@code ExecutorType} is also kept because a TX holds one {@code SqlSession} per
+ * {@code ExecutorType}, all of them sharing the connection of the TX. The first one is the
+ * one the holder was created with.
  *
  * @author Hunter Presnall
  * @author Eduardo Macarron
@@ -39,6 +48,12 @@ public final class SqlSessionHolder extends ResourceHolderSupport {
 
     private final PersistenceExceptionTranslator exceptionTranslator;
 
+    private final Map<ExecutorType, SqlSession> sqlSessions = new EnumMap<>(ExecutorType.class);
+
+    private ExecutorType currentExecutorType;
+
+    private final Set<Cache> evictedCaches = new HashSet<>();
+
     /**
      * Creates a new holder instance.
      *
@@ -56,6 +71,8 @@ public final class SqlSessionHolder extends ResourceHolderSupport {
         this.sqlSession = sqlSession;
         this.executorType = executorType;
         this.exceptionTranslator = exceptionTranslator;
+        this.sqlSessions.put(executorType, sqlSession);
+        this.currentExecutorType = executorType;
     }
 
     public SqlSession getSqlSession() {
@@ -70,4 +87,75 @@ public final class SqlSessionHolder extends ResourceHolderSupport {
         return exceptionTranslator;
     }
 
+    /**
+     * Returns the session of the given {@code ExecutorType}.
+     *
+     * @param executorType an executor type
+     * @return the session, or {@code null} if this holder has none of that type yet
+     * @since 2.0.2
+     */
+    public SqlSession getSqlSession(ExecutorType executorType) {
+        return this.sqlSessions.get(executorType);
+    }
+
+    /**
+     * Returns every session of this holder.
+     *
+     * @return the sessions, in {@code ExecutorType} order
+     * @since 2.0.2
+     */
+    public Collection<SqlSession> getSqlSessions() {
+        return Collections.unmodifiableCollection(this.sqlSessions.values());
+    }
+
+    /**
+     * Returns if the given session is one of the sessions of this holder.
+     *
+     * @param sqlSession a session
+     * @return true if this holder holds the session
+     * @since 2.0.2
+     */
+    public boolean containsSqlSession(SqlSession sqlSession) {
+        return this.sqlSession == sqlSession || this.sqlSessions.containsValue(sqlSession);
+    }
+
+    void addSqlSession(ExecutorType executorType, SqlSession sqlSession) {
+        this.sqlSessions.put(executorType, sqlSession);
+        stageClears(sqlSession, this.evictedCaches);
+    }
+
+    /**
+     * Stages the clearing of 2nd level caches written by one session in the other sessions of this
+     * holder, including the ones added later, as a session only misses the caches its own writes
+     * evicted until the TX commits.
+     */
+    void stageEvictions(SqlSession writer, Collection<Cache> caches) {
+        this.evictedCaches.addAll(caches);
+        for (SqlSession session : this.sqlSessions.values()) {
+            if (session != writer) {
+                stageClears(session, caches);
+            }
+        }
+    }
+
+    private static void stageClears(SqlSession session, Collection<Cache> caches) {
+        for (Cache cache : caches) {
+            if (!TransactionalCaches.stageClear(session, cache)) {
+                // a stale read inside the TX is worse than an early eviction
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the executor type of the session used last.
+     */
+    ExecutorType getCurrentExecutorType() {
+        return this.currentExecutorType;
+    }
+
+    void setCurrentExecutorType(ExecutorType currentExecutorType) {
+        this.currentExecutorType = currentExecutorType;
+    }
+
 }
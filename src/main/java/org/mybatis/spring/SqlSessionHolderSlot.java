@@ -0,0 +1,181 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.leak.ResourceLeakTracker;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Thread local slot holding the {@code SqlSessionHolder} bound to the current thread for one
+ * {@code SqlSessionFactory}. The holder is also bound to the {@code TransactionSynchronizationManager}
+ * as before, but finding it in the slot takes a single thread local read instead of probing the
+ * resource map of the synchronization manager, which holds every resource of the transaction and
+ * unwraps each key it is given.
+ * <p>
+ * {@code SqlSessionUtils} binds and unbinds every holder through its slot, including when a
+ * transaction is suspended and resumed. A holder bound to the synchronization manager by other code
+ * is still found: while synchronization is active, an empty slot falls back to the synchronization
+ * manager. A holder unbound from another thread, as when a JTA transaction completes on another
+ * thread, is marked void and dropped from the slot of its thread on the next read.
+ * <p>
+ * Slots are looked up without locking and do not keep their factory from being garbage collected.
+ * The slot also keeps the {@code ResourceLeakTracker} of the factory, if any.
+ *
+ * @since 2.0.2
+ */
+final class SqlSessionHolderSlot {
+
+    private static final ConcurrentMap<Object, SqlSessionHolderSlot> SLOTS = new ConcurrentHashMap<>();
+
+    private static final ReferenceQueue<SqlSessionFactory> COLLECTED_FACTORIES = new ReferenceQueue<>();
+
+    private final FactoryKey factory;
+
+    private final ThreadLocal<SqlSessionHolder> holder = new ThreadLocal<>();
+
+    private volatile ResourceLeakTracker leakTracker;
+
+    private SqlSessionHolderSlot(FactoryKey factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the slot of a factory. Callers running many calls should keep it.
+     */
+    static SqlSessionHolderSlot forFactory(SqlSessionFactory sessionFactory) {
+        SqlSessionHolderSlot slot = SLOTS.get(new FactoryLookup(sessionFactory));
+        if (slot != null) {
+            return slot;
+        }
+        for (Reference<?> collected = COLLECTED_FACTORIES.poll(); collected != null; collected = COLLECTED_FACTORIES.poll()) {
+            SLOTS.remove(collected);
+        }
+        SqlSessionHolderSlot created = new SqlSessionHolderSlot(new FactoryKey(sessionFactory, COLLECTED_FACTORIES));
+        slot = SLOTS.putIfAbsent(created.factory, created);
+        return slot == null ? created : slot;
+    }
+
+    /**
+     * Returns the holder bound to the current thread, or {@code null} if there is none.
+     */
+    SqlSessionHolder get() {
+        SqlSessionHolder current = this.holder.get();
+        if (current == null) {
+            return TransactionSynchronizationManager.isSynchronizationActive() ? boundByOthers() : null;
+        }
+        if (current.isVoid()) {
+            this.holder.remove();
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the holder bound to the synchronization manager without this slot, if any.
+     */
+    private SqlSessionHolder boundByOthers() {
+        SqlSessionFactory sessionFactory = this.factory.get();
+        Object resource = sessionFactory == null ? null : TransactionSynchronizationManager.getResource(sessionFactory);
+        return resource instanceof SqlSessionHolder ? (SqlSessionHolder) resource : null;
+    }
+
+    ResourceLeakTracker getLeakTracker() {
+        return this.leakTracker;
+    }
+
+    void setLeakTracker(ResourceLeakTracker leakTracker) {
+        this.leakTracker = leakTracker;
+    }
+
+    void bind(SqlSessionFactory sessionFactory, SqlSessionHolder holder) {
+        TransactionSynchronizationManager.bindResource(sessionFactory, holder);
+        this.holder.set(holder);
+    }
+
+    void unbind(SqlSessionFactory sessionFactory) {
+        TransactionSynchronizationManager.unbindResource(sessionFactory);
+        this.holder.remove();
+    }
+
+    /**
+     * Unbinds the holder of the current thread if any. As this may run on another thread than the
+     * one the holder is bound to, the holder is also marked void.
+     */
+    void unbindIfPossible(SqlSessionFactory sessionFactory, SqlSessionHolder holder) {
+        holder.unbound();
+        TransactionSynchronizationManager.unbindResourceIfPossible(sessionFactory);
+        if (this.holder.get() == holder) {
+            this.holder.remove();
+        }
+    }
+
+    /**
+     * Weak key of a factory in the slot map, compared by identity.
+     */
+    private static final class FactoryKey extends WeakReference<SqlSessionFactory> {
+
+        private final int hash;
+
+        FactoryKey(SqlSessionFactory sessionFactory, ReferenceQueue<SqlSessionFactory> queue) {
+            super(sessionFactory, queue);
+            this.hash = System.identityHashCode(sessionFactory);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            SqlSessionFactory sessionFactory = get();
+            return sessionFactory != null && other instanceof FactoryKey && ((FactoryKey) other).get() == sessionFactory;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    /**
+     * Key looking up the slot of a factory without creating a weak reference.
+     */
+    private static final class FactoryLookup {
+
+        private final SqlSessionFactory sessionFactory;
+
+        FactoryLookup(SqlSessionFactory sessionFactory) {
+            this.sessionFactory = sessionFactory;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof FactoryKey && ((FactoryKey) other).get() == this.sessionFactory;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.sessionFactory);
+        }
+    }
+
+}
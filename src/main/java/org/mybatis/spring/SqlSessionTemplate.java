@@ -15,30 +15,60 @@
  */
 package org.mybatis.spring;
 
-import static java.lang.reflect.Proxy.newProxyInstance;
-import static org.apache.ibatis.reflection.ExceptionUtil.unwrapThrowable;
 import static org.mybatis.spring.SqlSessionUtils.closeSqlSession;
+import static org.mybatis.spring.SqlSessionUtils.closeUnitOfWork;
 import static org.mybatis.spring.SqlSessionUtils.getSqlSession;
-import static org.mybatis.spring.SqlSessionUtils.isSqlSessionTransactional;
+import static org.mybatis.spring.SqlSessionUtils.openUnitOfWork;
+import static org.springframework.util.Assert.isTrue;
 import static org.springframework.util.Assert.notNull;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.ibatis.cache.CacheKey;
 import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.exceptions.ExceptionFactory;
 import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.exceptions.TooManyResultsException;
+import org.apache.ibatis.executor.BatchExecutor;
 import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.bulkhead.Bulkhead;
+import org.mybatis.spring.metrics.SqlSessionMetrics;
+import org.mybatis.spring.statement.Deadline;
+import org.mybatis.spring.statement.DeadlineExceededException;
+import org.mybatis.spring.statement.DeadlineHolder;
+import org.mybatis.spring.statement.StatementOptions;
+import org.mybatis.spring.statement.StatementOptionsHolder;
+import org.mybatis.spring.statement.StatementOptionsInterceptor;
+import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
 import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Thread safe, Spring managed, {@code SqlSession} that works with Spring
@@ -90,10 +120,39 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
 
     private final ExecutorType executorType;
 
-    private final SqlSession sqlSessionProxy;
-
     private final PersistenceExceptionTranslator exceptionTranslator;
 
+    private final SqlSessionHolderSlot sessionHolderSlot;
+
+    private SelectCompletionPolicy selectCompletionPolicy = SelectCompletionPolicy.FORCE_COMMIT;
+
+    private SqlSessionMetrics sqlSessionMetrics;
+
+    private Set<String> singleFlightStatements = Collections.emptySet();
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private Map<String, BatchLoader> batchLoaders = Collections.emptyMap();
+
+    private Set<String> writeBehindStatements = Collections.emptySet();
+
+    private int writeBehindFlushSize = 1000;
+
+    // bumped when the per statement settings change, invalidating the ones cached by handles
+    private volatile int statementSettingsVersion;
+
+    private Executor chunkExecutor;
+
+    private int chunkParallelism = 4;
+
+    private Bulkhead bulkhead;
+
+    private final Object bulkheadScopeKey = new Object();
+
+    private int bulkBatchSize = 1000;
+
+    private boolean deadlineSupported;
+
     /**
      * Constructs a Spring managed SqlSession with the {@code SqlSessionFactory}
      * provided as an argument.
@@ -142,15 +201,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
         this.sqlSessionFactory = sqlSessionFactory;
         this.executorType = executorType;
         this.exceptionTranslator = exceptionTranslator;
-        /**
-         * 这里就是代理核心
-         * 在和 spring 或者 spring-boot 结合后，所有 {@link org.apache.ibatis.binding.MapperProxy#sqlSession} 都是这个类
-         * 而这个类在调用 {@link SqlSession} 所有的接口都是采用 sqlSessionProxy 来代理，具体逻辑 {@link SqlSessionInterceptor}
-         */
-        this.sqlSessionProxy = (SqlSession) newProxyInstance(
-                SqlSessionFactory.class.getClassLoader(),
-                new Class[]{SqlSession.class},
-                new SqlSessionInterceptor());
+        this.sessionHolderSlot = SqlSessionHolderSlot.forFactory(sqlSessionFactory);
     }
 
     public SqlSessionFactory getSqlSessionFactory() {
@@ -165,12 +216,263 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
         return this.exceptionTranslator;
     }
 
+    public SelectCompletionPolicy getSelectCompletionPolicy() {
+        return this.selectCompletionPolicy;
+    }
+
+    /**
+     * Sets how non transactional sessions that only ran a SELECT statement are completed.
+     * By default they are committed before closing, like any other session.
+     *
+     * @param selectCompletionPolicy a policy for non transactional SELECT statements
+     * @since 2.0.2
+     */
+    public void setSelectCompletionPolicy(SelectCompletionPolicy selectCompletionPolicy) {
+        notNull(selectCompletionPolicy, "Property 'selectCompletionPolicy' is required");
+        this.selectCompletionPolicy = selectCompletionPolicy;
+    }
+
+    public SqlSessionMetrics getSqlSessionMetrics() {
+        return this.sqlSessionMetrics;
+    }
+
+    /**
+     * Sets the {@code SqlSessionMetrics} notified once every statement call ends, with its latency
+     * and the number of rows it returned or affected. Calls that do not run a statement, like
+     * {@code commit} or {@code getConnection}, are not recorded. No metrics are recorded by default.
+     *
+     * @param sqlSessionMetrics the metrics to record the calls into, or {@code null} to disable them
+     * @since 2.0.2
+     */
+    public void setSqlSessionMetrics(SqlSessionMetrics sqlSessionMetrics) {
+        this.sqlSessionMetrics = sqlSessionMetrics;
+    }
+
+    public Set<String> getSingleFlightStatements() {
+        return this.singleFlightStatements;
+    }
+
+    /**
+     * Sets the SELECT statements whose concurrent identical calls are coalesced. When a non
+     * transactional {@code selectOne} or {@code selectList} call runs one of these statements while
+     * a call with the same {@code CacheKey} (statement, SQL, parameter values and row bounds) is in
+     * flight, it waits for that call and returns its result instead of borrowing a connection and
+     * running the statement again.
+     * <p>
+     * Coalesced callers get their own result list but share the mapped objects, which should then
+     * not be modified. Calls inside a Spring transaction or a unit of work, and calls with
+     * {@code StatementOptions}, are never coalesced. A caller waiting for a call in flight still
+     * fails when its own {@code Deadline} passes.
+     *
+     * @param singleFlightStatements the ids of the statements to coalesce
+     * @see SqlSessionMetrics#recordCoalesced(String, ExecutorType, long)
+     * @since 2.0.2
+     */
+    public void setSingleFlightStatements(Collection<String> singleFlightStatements) {
+        notNull(singleFlightStatements, "Property 'singleFlightStatements' is required");
+        this.singleFlightStatements = Collections.unmodifiableSet(new HashSet<>(singleFlightStatements));
+        this.statementSettingsVersion++;
+    }
+
+    public Collection<BatchLoader> getBatchLoaders() {
+        return this.batchLoaders.values();
+    }
+
+    /**
+     * Sets the loaders batching the concurrent non transactional {@code selectOne} calls of their
+     * by-key statements into multi-key statements.
+     *
+     * @param batchLoaders the batch loaders, one per by-key statement
+     * @see BatchLoader
+     * @since 2.0.2
+     */
+    public void setBatchLoaders(Collection<BatchLoader> batchLoaders) {
+        notNull(batchLoaders, "Property 'batchLoaders' is required");
+        Map<String, BatchLoader> loaders = new HashMap<>();
+        for (BatchLoader batchLoader : batchLoaders) {
+            isTrue(loaders.put(batchLoader.getStatement(), batchLoader) == null,
+                    () -> "Duplicate batch loader for statement '" + batchLoader.getStatement() + "'");
+        }
+        this.batchLoaders = Collections.unmodifiableMap(loaders);
+        this.statementSettingsVersion++;
+    }
+
+    public Set<String> getWriteBehindStatements() {
+        return this.writeBehindStatements;
+    }
+
+    /**
+     * Sets the INSERT, UPDATE and DELETE statements whose calls are buffered inside read-write
+     * Spring transactions and run later as JDBC batches, on a {@code BATCH} session sharing the
+     * transaction connection, so the rest of the transaction can keep a {@code SIMPLE} executor.
+     * Buffered writes keep their order and are flushed:
+     * <ul>
+     * <li>before the transaction commits, so a failing write rolls the transaction back</li>
+     * <li>once {@code writeBehindFlushSize} writes are buffered</li>
+     * <li>before a SELECT of this template mentioning a written table (any SELECT when a table
+     * cannot be told from the SQL, and any SELECT with dynamic SQL)</li>
+     * <li>before any other call of this template, like a write of another statement</li>
+     * </ul>
+     * Buffered calls return {@code BatchExecutor.BATCH_UPDATE_RETURN_VALUE} instead of a row count
+     * and generated keys are only set once they are flushed, so only statements whose callers need
+     * neither should be listed. Reads made by other means than a template with write-behind
+     * statements, like a {@code JdbcTemplate}, do not flush the buffer.
+     *
+     * @param writeBehindStatements the ids of the statements to buffer
+     * @since 2.0.2
+     */
+    public void setWriteBehindStatements(Collection<String> writeBehindStatements) {
+        notNull(writeBehindStatements, "Property 'writeBehindStatements' is required");
+        this.writeBehindStatements = Collections.unmodifiableSet(new HashSet<>(writeBehindStatements));
+        this.statementSettingsVersion++;
+    }
+
+    public int getWriteBehindFlushSize() {
+        return this.writeBehindFlushSize;
+    }
+
+    /**
+     * Sets how many writes are buffered before they are flushed. Defaults to 1000.
+     *
+     * @param writeBehindFlushSize the maximum number of buffered writes
+     * @since 2.0.2
+     */
+    public void setWriteBehindFlushSize(int writeBehindFlushSize) {
+        isTrue(writeBehindFlushSize > 0, "Property 'writeBehindFlushSize' must be greater than 0");
+        this.writeBehindFlushSize = writeBehindFlushSize;
+    }
+
+    public Executor getChunkExecutor() {
+        return this.chunkExecutor;
+    }
+
+    /**
+     * Sets the executor running the chunks of {@code selectListInChunks} calls made outside of
+     * Spring transactions and units of work. When not set, chunks always run one after the other
+     * on the calling thread.
+     *
+     * @param chunkExecutor the executor running the chunks
+     * @since 2.0.2
+     */
+    public void setChunkExecutor(Executor chunkExecutor) {
+        this.chunkExecutor = chunkExecutor;
+    }
+
+    public int getChunkParallelism() {
+        return this.chunkParallelism;
+    }
+
+    /**
+     * Sets how many chunks of a single {@code selectListInChunks} call may run at once, the
+     * calling thread included, and so how many connections the call may hold at once. Defaults to 4.
+     *
+     * @param chunkParallelism the maximum number of chunks running at once
+     * @since 2.0.2
+     */
+    public void setChunkParallelism(int chunkParallelism) {
+        isTrue(chunkParallelism > 0, "Property 'chunkParallelism' must be greater than 0");
+        this.chunkParallelism = chunkParallelism;
+    }
+
+    public int getBulkBatchSize() {
+        return this.bulkBatchSize;
+    }
+
+    /**
+     * Sets how many rows {@code insertAll} and {@code upsertAll} calls send per JDBC batch.
+     * Defaults to 1000.
+     *
+     * @param bulkBatchSize the number of rows per batch
+     * @since 2.0.2
+     */
+    public void setBulkBatchSize(int bulkBatchSize) {
+        isTrue(bulkBatchSize > 0, "Property 'bulkBatchSize' must be greater than 0");
+        this.bulkBatchSize = bulkBatchSize;
+    }
+
+    public Bulkhead getBulkhead() {
+        return this.bulkhead;
+    }
+
+    /**
+     * Sets the bulkhead limiting the concurrent calls of this template that get a connection of
+     * their own: non transactional calls, cursors until they are closed, units of work and scopes
+     * with transaction synchronization but no transaction, like {@code SUPPORTS}, whose first call
+     * takes a permit held until the scope completes. A
+     * bulkhead guards the factory of the template, so routing and sharded templates do not pass it
+     * to their replica or shard templates, which can be given their own.
+     *
+     * @param bulkhead the bulkhead, or {@code null} for no limit
+     * @see Bulkhead
+     * @since 2.0.2
+     */
+    public void setBulkhead(Bulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * Runs the given callback as a single unit of work. Outside a Spring transaction, one
+     * {@code SqlSession} (and so one JDBC connection) is bound to the current thread for the whole
+     * callback, and every call made through this template or through its mappers reuses it, which
+     * also gives MyBatis local cache hits across them. No database transaction is started: the
+     * session is committed and closed once the callback returns, just like a single non
+     * transactional call would be.
+     * <p>
+     * When a Spring transaction is already active, or the callback is nested in another unit of
+     * work, the callback just joins the current session.
+     * <p>
+     * Starting a Spring transaction inside the callback is not supported because the bound session
+     * is not using the transaction connection; template calls fail in that case.
+     *
+     * <pre class="code">
+     * {@code
+     * List<User> users = sqlSessionTemplate.execute(sqlSession -> {
+     *   UserMapper mapper = sqlSession.getMapper(UserMapper.class);
+     *   ...
+     * });
+     * }
+     * </pre>
+     *
+     * @param action the callback that runs the MyBatis calls
+     * @param <T> the result type of the callback
+     * @return the result of the callback
+     * @since 2.0.2
+     */
+    public <T> T execute(SqlSessionCallback<T> action) {
+        notNull(action, "Parameter 'action' must be not null");
+
+        if (isSqlSessionBound()) {
+            return action.doInSqlSession(this);
+        }
+
+        // a unit of work holds a single connection for all its calls
+        Bulkhead.Permit permit = acquirePermit(null);
+        try {
+            SqlSession sqlSession = openUnitOfWork(this.sqlSessionFactory, this.executorType, this.exceptionTranslator);
+            try {
+                T result = action.doInSqlSession(this);
+                // same as a non transactional call, see invoke()
+                sqlSession.commit(true);
+                return result;
+            } catch (RuntimeException e) {
+                throw translateExceptionIfPossible(e);
+            } finally {
+                closeUnitOfWork(sqlSession, this.sqlSessionFactory);
+            }
+        } finally {
+            release(permit);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public <T> T selectOne(String statement) {
-        return this.sqlSessionProxy.selectOne(statement);
+        if (isSingleFlight(statement)) {
+            return singleFlightSelectOne(statement, null);
+        }
+        return invokeStatement(statement, null, null, (sqlSession, id, param) -> sqlSession.selectOne(id));
     }
 
     /**
@@ -178,7 +480,29 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public <T> T selectOne(String statement, Object parameter) {
-        return this.sqlSessionProxy.selectOne(statement, parameter);
+        BatchLoader batchLoader = batchLoaderOf(statement);
+        if (batchLoader != null) {
+            return batchLoader.load(this, parameter);
+        } else if (isSingleFlight(statement)) {
+            return singleFlightSelectOne(statement, parameter);
+        }
+        return invokeStatement(statement, null, parameter, (sqlSession, id, param) -> sqlSession.selectOne(id, param));
+    }
+
+    /**
+     * Same as {@link #selectOne(String, Object)} but runs the statement with the given JDBC
+     * options, which take precedence over the ones bound to the current thread by
+     * {@code StatementOptionsHolder}. It requires the {@code StatementOptionsInterceptor}.
+     *
+     * @param <T> the returned object type
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param statementOptions the JDBC options of the statement
+     * @return Mapped object
+     * @since 2.0.2
+     */
+    public <T> T selectOne(String statement, Object parameter, StatementOptions statementOptions) {
+        return withStatementOptions(statementOptions, () -> selectOne(statement, parameter));
     }
 
     /**
@@ -186,7 +510,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public <K, V> Map<K, V> selectMap(String statement, String mapKey) {
-        return this.sqlSessionProxy.selectMap(statement, mapKey);
+        return invoke(statement, sqlSession -> sqlSession.selectMap(statement, mapKey));
     }
 
     /**
@@ -194,7 +518,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey) {
-        return this.sqlSessionProxy.selectMap(statement, parameter, mapKey);
+        return invoke(statement, sqlSession -> sqlSession.selectMap(statement, parameter, mapKey));
     }
 
     /**
@@ -202,31 +526,138 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public <K, V> Map<K, V> selectMap(String statement, Object parameter, String mapKey, RowBounds rowBounds) {
-        return this.sqlSessionProxy.selectMap(statement, parameter, mapKey, rowBounds);
+        return invoke(statement, sqlSession -> sqlSession.selectMap(statement, parameter, mapKey, rowBounds));
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Outside a transaction the cursor keeps its own {@code SqlSession} open until the cursor is
+     * closed or fully consumed, so it must always be closed.
      */
     @Override
     public <T> Cursor<T> selectCursor(String statement) {
-        return this.sqlSessionProxy.selectCursor(statement);
+        return openCursor(statement, sqlSession -> sqlSession.selectCursor(statement));
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Outside a transaction the cursor keeps its own {@code SqlSession} open until the cursor is
+     * closed or fully consumed, so it must always be closed.
      */
     @Override
     public <T> Cursor<T> selectCursor(String statement, Object parameter) {
-        return this.sqlSessionProxy.selectCursor(statement, parameter);
+        return openCursor(statement, sqlSession -> sqlSession.selectCursor(statement, parameter));
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Outside a transaction the cursor keeps its own {@code SqlSession} open until the cursor is
+     * closed or fully consumed, so it must always be closed.
      */
     @Override
     public <T> Cursor<T> selectCursor(String statement, Object parameter, RowBounds rowBounds) {
-        return this.sqlSessionProxy.selectCursor(statement, parameter, rowBounds);
+        return openCursor(statement, sqlSession -> sqlSession.selectCursor(statement, parameter, rowBounds));
+    }
+
+    /**
+     * Same as {@link #selectCursor(String, Object)} but runs the statement with the given JDBC
+     * options, which take precedence over the ones bound to the current thread by
+     * {@code StatementOptionsHolder}. It requires the {@code StatementOptionsInterceptor}.
+     *
+     * @param <T> the returned cursor element type.
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param statementOptions the JDBC options of the statement
+     * @return Cursor of mapped objects
+     * @since 2.0.2
+     */
+    public <T> Cursor<T> selectCursor(String statement, Object parameter, StatementOptions statementOptions) {
+        return withStatementOptions(statementOptions, () -> selectCursor(statement, parameter));
+    }
+
+    /**
+     * Retrieve a lazily fetched stream of mapped objects from the statement key.
+     *
+     * @param <T> the returned stream element type
+     * @param statement Unique identifier matching the statement to use.
+     * @return Stream of mapped objects
+     * @see #selectStream(String, Object, int)
+     * @since 2.0.2
+     */
+    public <T> Stream<T> selectStream(String statement) {
+        return toStream(selectCursor(statement));
+    }
+
+    /**
+     * Retrieve a lazily fetched stream of mapped objects from the statement key and parameter.
+     *
+     * @param <T> the returned stream element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @return Stream of mapped objects
+     * @see #selectStream(String, Object, int)
+     * @since 2.0.2
+     */
+    public <T> Stream<T> selectStream(String statement, Object parameter) {
+        return toStream(selectCursor(statement, parameter));
+    }
+
+    /**
+     * Retrieve a lazily fetched stream of mapped objects from the statement key and parameter,
+     * backed by a {@code Cursor}, so rows are read as the stream is consumed and memory use does
+     * not depend on the number of rows.
+     * <p>
+     * Outside a transaction the stream keeps its own {@code SqlSession} and connection open until
+     * it is closed or fully consumed, so it should be used in a try-with-resources block.
+     * Abandoned streams are reported and their session closed once they are garbage collected.
+     *
+     * <pre class="code">
+     * {@code
+     * try (Stream<User> users = sqlSessionTemplate.selectStream("selectAllUsers", null, 1000)) {
+     *   users.forEach(exporter::write);
+     * }
+     * }
+     * </pre>
+     *
+     * @param <T> the returned stream element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param fetchSize The number of rows fetched per round trip. It requires the
+     *                  {@code StatementOptionsInterceptor}.
+     * @return Stream of mapped objects
+     * @since 2.0.2
+     */
+    public <T> Stream<T> selectStream(String statement, Object parameter, int fetchSize) {
+        return selectStream(statement, parameter, StatementOptions.builder().fetchSize(fetchSize).build());
+    }
+
+    /**
+     * Retrieve a lazily fetched stream of mapped objects from the statement key and parameter,
+     * running the statement with the given options.
+     *
+     * @param <T> the returned stream element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param statementOptions the JDBC options of the statement
+     * @return Stream of mapped objects
+     * @see #selectStream(String, Object, int)
+     * @since 2.0.2
+     */
+    public <T> Stream<T> selectStream(String statement, Object parameter, StatementOptions statementOptions) {
+        return toStream(selectCursor(statement, parameter, statementOptions));
+    }
+
+    private static <T> Stream<T> toStream(Cursor<T> cursor) {
+        return StreamSupport.stream(cursor.spliterator(), false).onClose(() -> {
+            try {
+                cursor.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
     /**
@@ -234,7 +665,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public <E> List<E> selectList(String statement) {
-        return this.sqlSessionProxy.selectList(statement);
+        if (isSingleFlight(statement)) {
+            return singleFlightSelectList(statement, null, RowBounds.DEFAULT);
+        }
+        return invokeStatement(statement, null, null, (sqlSession, id, param) -> sqlSession.selectList(id));
     }
 
     /**
@@ -242,7 +676,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public <E> List<E> selectList(String statement, Object parameter) {
-        return this.sqlSessionProxy.selectList(statement, parameter);
+        if (isSingleFlight(statement)) {
+            return singleFlightSelectList(statement, parameter, RowBounds.DEFAULT);
+        }
+        return invokeStatement(statement, null, parameter, (sqlSession, id, param) -> sqlSession.selectList(id, param));
     }
 
     /**
@@ -250,7 +687,356 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds) {
-        return this.sqlSessionProxy.selectList(statement, parameter, rowBounds);
+        if (isSingleFlight(statement)) {
+            return singleFlightSelectList(statement, parameter, rowBounds);
+        }
+        return invoke(statement, sqlSession -> sqlSession.selectList(statement, parameter, rowBounds));
+    }
+
+    /**
+     * Same as {@link #selectList(String, Object)} but runs the statement with the given JDBC
+     * options, which take precedence over the ones bound to the current thread by
+     * {@code StatementOptionsHolder}. It requires the {@code StatementOptionsInterceptor}.
+     *
+     * @param <E> the returned list element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param statementOptions the JDBC options of the statement
+     * @return List of mapped object
+     * @since 2.0.2
+     */
+    public <E> List<E> selectList(String statement, Object parameter, StatementOptions statementOptions) {
+        return withStatementOptions(statementOptions, () -> selectList(statement, parameter));
+    }
+
+    /**
+     * Same as {@link #selectList(String, Object, RowBounds)} but runs the statement with the given JDBC
+     * options, which take precedence over the ones bound to the current thread by
+     * {@code StatementOptionsHolder}. It requires the {@code StatementOptionsInterceptor}.
+     *
+     * @param <E> the returned list element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param rowBounds Bounds to limit object retrieval
+     * @param statementOptions the JDBC options of the statement
+     * @return List of mapped object
+     * @since 2.0.2
+     */
+    public <E> List<E> selectList(String statement, Object parameter, RowBounds rowBounds, StatementOptions statementOptions) {
+        return withStatementOptions(statementOptions, () -> selectList(statement, parameter, rowBounds));
+    }
+
+    /**
+     * Resolves the given statement once into a handle that calls can reuse, skipping the lookups
+     * of the statement id done on every call.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @return the handle of the statement
+     * @throws IllegalArgumentException if the configuration has no such statement
+     * @see StatementHandle
+     * @since 2.0.2
+     */
+    public StatementHandle getStatementHandle(String statement) {
+        notNull(statement, "Parameter 'statement' must be not null");
+        isTrue(getConfiguration().hasStatement(statement), () -> "Mapped Statements collection does not contain value for " + statement);
+        return new StatementHandle(getConfiguration().getMappedStatement(statement));
+    }
+
+    /**
+     * Resolves the statement of the given mapper method once into a handle that calls can reuse.
+     * As MyBatis does for mapper methods, the statement is looked up in the mapper interface
+     * and then in the interfaces it extends.
+     *
+     * @param mapperInterface the mapper interface declaring or inheriting the method
+     * @param methodName the name of the mapper method
+     * @return the handle of the statement
+     * @throws IllegalArgumentException if the configuration has no statement for the method
+     * @since 2.0.2
+     */
+    public StatementHandle getStatementHandle(Class<?> mapperInterface, String methodName) {
+        notNull(mapperInterface, "Parameter 'mapperInterface' must be not null");
+        notNull(methodName, "Parameter 'methodName' must be not null");
+        MappedStatement ms = resolveMappedStatement(mapperInterface, methodName);
+        isTrue(ms != null, () -> "Invalid bound statement (not found): " + mapperInterface.getName() + "." + methodName);
+        return new StatementHandle(ms);
+    }
+
+    private MappedStatement resolveMappedStatement(Class<?> mapperInterface, String methodName) {
+        String statementId = mapperInterface.getName() + "." + methodName;
+        if (getConfiguration().hasStatement(statementId)) {
+            return getConfiguration().getMappedStatement(statementId);
+        }
+        for (Class<?> superInterface : mapperInterface.getInterfaces()) {
+            MappedStatement ms = resolveMappedStatement(superInterface, methodName);
+            if (ms != null) {
+                return ms;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #selectOne(String, Object)} for a resolved statement.
+     *
+     * @param <T> the returned object type
+     * @param handle the handle of the statement
+     * @param parameter A parameter object to pass to the statement.
+     * @return Mapped object
+     * @since 2.0.2
+     */
+    public <T> T selectOne(StatementHandle handle, Object parameter) {
+        StatementHandle.Settings settings = settingsOf(handle);
+        if (settings.getBatchLoader() != null && canBatchLoad()) {
+            return settings.getBatchLoader().load(this, parameter);
+        }
+        String statement = handle.getId();
+        MappedStatement ms = handle.getMappedStatement();
+        if (settings.isSingleFlight() && canSingleFlight()) {
+            return singleFlightSelectOne(statement, ms, parameter);
+        }
+        return invokeStatement(statement, ms, parameter, (sqlSession, id, param) -> sqlSession.selectOne(id, param));
+    }
+
+    /**
+     * Same as {@link #selectList(String, Object)} for a resolved statement.
+     *
+     * @param <E> the returned list element type
+     * @param handle the handle of the statement
+     * @param parameter A parameter object to pass to the statement.
+     * @return List of mapped object
+     * @since 2.0.2
+     */
+    public <E> List<E> selectList(StatementHandle handle, Object parameter) {
+        return selectList(handle, parameter, RowBounds.DEFAULT);
+    }
+
+    /**
+     * Same as {@link #selectList(String, Object, RowBounds)} for a resolved statement.
+     *
+     * @param <E> the returned list element type
+     * @param handle the handle of the statement
+     * @param parameter A parameter object to pass to the statement.
+     * @param rowBounds Bounds to limit object retrieval
+     * @return List of mapped object
+     * @since 2.0.2
+     */
+    public <E> List<E> selectList(StatementHandle handle, Object parameter, RowBounds rowBounds) {
+        StatementHandle.Settings settings = settingsOf(handle);
+        String statement = handle.getId();
+        MappedStatement ms = handle.getMappedStatement();
+        if (settings.isSingleFlight() && canSingleFlight()) {
+            return singleFlightSelectList(statement, ms, parameter, rowBounds);
+        }
+        return invoke(statement, ms, sqlSession -> sqlSession.selectList(statement, parameter, rowBounds));
+    }
+
+    /**
+     * Same as {@link #insert(String, Object)} for a resolved statement.
+     *
+     * @param handle the handle of the statement
+     * @param parameter A parameter object to pass to the statement.
+     * @return int The number of rows affected by the insert.
+     * @since 2.0.2
+     */
+    public int insert(StatementHandle handle, Object parameter) {
+        String statement = handle.getId();
+        if (settingsOf(handle).isWriteBehind() && canWriteBehind()) {
+            return writeBehind(statement, parameter);
+        }
+        return invokeStatement(statement, handle.getMappedStatement(), parameter, (sqlSession, id, param) -> sqlSession.insert(id, param));
+    }
+
+    /**
+     * Same as {@link #update(String, Object)} for a resolved statement.
+     *
+     * @param handle the handle of the statement
+     * @param parameter A parameter object to pass to the statement.
+     * @return int The number of rows affected by the update.
+     * @since 2.0.2
+     */
+    public int update(StatementHandle handle, Object parameter) {
+        String statement = handle.getId();
+        if (settingsOf(handle).isWriteBehind() && canWriteBehind()) {
+            return writeBehind(statement, parameter);
+        }
+        return invokeStatement(statement, handle.getMappedStatement(), parameter, (sqlSession, id, param) -> sqlSession.update(id, param));
+    }
+
+    /**
+     * Same as {@link #delete(String, Object)} for a resolved statement.
+     *
+     * @param handle the handle of the statement
+     * @param parameter A parameter object to pass to the statement.
+     * @return int The number of rows affected by the delete.
+     * @since 2.0.2
+     */
+    public int delete(StatementHandle handle, Object parameter) {
+        String statement = handle.getId();
+        if (settingsOf(handle).isWriteBehind() && canWriteBehind()) {
+            return writeBehind(statement, parameter);
+        }
+        return invokeStatement(statement, handle.getMappedStatement(), parameter, (sqlSession, id, param) -> sqlSession.delete(id, param));
+    }
+
+    /**
+     * Runs a SELECT taking a large collection of values, typically through a {@code <foreach>}
+     * building an IN list, once per chunk of at most {@code chunkSize} values, passing each chunk
+     * as the parameter, and returns the concatenated results in chunk order.
+     *
+     * @param <E> the returned list element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param values the values to split into chunks
+     * @param chunkSize the maximum number of values per chunk
+     * @return List of mapped object
+     * @see #selectListInChunks(String, Collection, int, Function, String)
+     * @since 2.0.2
+     */
+    public <E> List<E> selectListInChunks(String statement, Collection<?> values, int chunkSize) {
+        return selectListInChunks(statement, values, chunkSize, chunk -> chunk, null);
+    }
+
+    /**
+     * Runs a SELECT taking a large collection of values once per chunk of at most
+     * {@code chunkSize} values and returns the concatenated results in chunk order.
+     *
+     * @param <E> the returned list element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param values the values to split into chunks
+     * @param chunkSize the maximum number of values per chunk
+     * @param parameterFactory builds the parameter object of a chunk, for example a map holding
+     *        the chunk along with the other parameters of the statement
+     * @return List of mapped object
+     * @see #selectListInChunks(String, Collection, int, Function, String)
+     * @since 2.0.2
+     */
+    public <E> List<E> selectListInChunks(String statement, Collection<?> values, int chunkSize,
+                                          Function<List<Object>, Object> parameterFactory) {
+        return selectListInChunks(statement, values, chunkSize, parameterFactory, null);
+    }
+
+    /**
+     * Runs a SELECT taking a large collection of values once per chunk of at most
+     * {@code chunkSize} values, so IN lists stay below the limits of the database and its plan
+     * cache, and merges the results.
+     * <p>
+     * Outside of Spring transactions and units of work, when a {@code chunkExecutor} is set, up to
+     * {@code chunkParallelism} chunks run at once, each on its own {@code SqlSession}; the first
+     * failing chunk stops the remaining ones and its exception is thrown. Otherwise the chunks run
+     * one after the other on the calling thread, within the current transaction if any.
+     * <p>
+     * Results are returned in chunk order, which is the input order when each value matches at
+     * most one row and the statement orders nothing itself. When {@code keyProperty} is given,
+     * rows are instead sorted by the position of their key property in {@code values}.
+     *
+     * @param <E> the returned list element type
+     * @param statement Unique identifier matching the statement to use.
+     * @param values the values to split into chunks
+     * @param chunkSize the maximum number of values per chunk
+     * @param parameterFactory builds the parameter object of a chunk
+     * @param keyProperty the property of the rows holding their value, or {@code null} to keep the
+     *        chunk order
+     * @return List of mapped object
+     * @since 2.0.2
+     */
+    public <E> List<E> selectListInChunks(String statement, Collection<?> values, int chunkSize,
+                                          Function<List<Object>, Object> parameterFactory, String keyProperty) {
+        notNull(values, "Parameter 'values' must be not null");
+        notNull(parameterFactory, "Parameter 'parameterFactory' must be not null");
+        isTrue(chunkSize > 0, "Parameter 'chunkSize' must be greater than 0");
+        if (values.isEmpty()) {
+            return Collections.emptyList();
+        }
+        ChunkedSelect<E> chunkedSelect = new ChunkedSelect<>(values, chunkSize,
+                chunk -> selectList(statement, parameterFactory.apply(chunk)));
+        // transactions and units of work are bound to the calling thread
+        List<E> rows = chunkedSelect.run(isSqlSessionBound() ? null : this.chunkExecutor, this.chunkParallelism);
+        if (keyProperty == null) {
+            return rows;
+        }
+        return ChunkedSelect.sortByKey(getConfiguration(), rows, values, keyProperty);
+    }
+
+    /**
+     * Runs a SELECT returning a single numeric column and returns its values as a {@code long[]}.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @return the values of the rows, in row order
+     * @see #selectLongs(String, Object)
+     * @since 2.0.2
+     */
+    public long[] selectLongs(String statement) {
+        return selectLongs(statement, null);
+    }
+
+    /**
+     * Runs a SELECT returning a single numeric column and returns its values as a {@code long[]}.
+     * The rows are stored into a growable {@code long[]} by a {@code ResultHandler} as they are
+     * read, so no list of boxed results is built, which matters for large id scans. A null or non
+     * numeric value, or one that is not exactly a {@code long} like {@code 1.5}, fails the call with
+     * a {@code TypeMismatchDataAccessException}.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @return the values of the rows, in row order
+     * @since 2.0.2
+     */
+    public long[] selectLongs(String statement, Object parameter) {
+        PrimitiveResultHandler.Longs handler = new PrimitiveResultHandler.Longs();
+        select(statement, parameter, handler);
+        handler.checkResult(statement);
+        return handler.toArray();
+    }
+
+    /**
+     * Same as {@link #selectLongs(String)} for {@code int} values.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @return the values of the rows, in row order
+     * @see #selectInts(String, Object)
+     * @since 2.0.2
+     */
+    public int[] selectInts(String statement) {
+        return selectInts(statement, null);
+    }
+
+    /**
+     * Same as {@link #selectLongs(String, Object)} for {@code int} values. A value that does not
+     * fit in an {@code int} fails the call instead of overflowing.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @return the values of the rows, in row order
+     * @since 2.0.2
+     */
+    public int[] selectInts(String statement, Object parameter) {
+        PrimitiveResultHandler.Ints handler = new PrimitiveResultHandler.Ints();
+        select(statement, parameter, handler);
+        handler.checkResult(statement);
+        return handler.toArray();
+    }
+
+    /**
+     * Runs a SELECT and returns a map of the numeric {@code keyProperty} of every row to its
+     * numeric {@code valueProperty}, typically an id to a count. Rows are stored into an open
+     * addressing {@code LongIntMap} as they are read, so neither a list of results nor boxed map
+     * entries are built. When several rows have the same key, the last one wins. A null or non
+     * numeric key or value, or a key that is not exactly a {@code long} or a value that is not
+     * exactly an {@code int}, fails the call with a {@code TypeMismatchDataAccessException}.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param keyProperty the property (or column of map rows) holding the key
+     * @param valueProperty the property (or column of map rows) holding the value
+     * @return the map of the keys to the values of the rows
+     * @since 2.0.2
+     */
+    public LongIntMap selectIntMap(String statement, Object parameter, String keyProperty, String valueProperty) {
+        notNull(keyProperty, "Parameter 'keyProperty' must be not null");
+        notNull(valueProperty, "Parameter 'valueProperty' must be not null");
+        PrimitiveResultHandler.IntMap handler = new PrimitiveResultHandler.IntMap(getConfiguration(), keyProperty, valueProperty);
+        select(statement, parameter, handler);
+        handler.checkResult(statement);
+        return handler.getMap();
     }
 
     /**
@@ -258,7 +1044,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public void select(String statement, ResultHandler handler) {
-        this.sqlSessionProxy.select(statement, handler);
+        invoke(statement, sqlSession -> {
+            sqlSession.select(statement, handler);
+            return null;
+        });
     }
 
     /**
@@ -266,7 +1055,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public void select(String statement, Object parameter, ResultHandler handler) {
-        this.sqlSessionProxy.select(statement, parameter, handler);
+        invoke(statement, sqlSession -> {
+            sqlSession.select(statement, parameter, handler);
+            return null;
+        });
     }
 
     /**
@@ -274,7 +1066,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public void select(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler) {
-        this.sqlSessionProxy.select(statement, parameter, rowBounds, handler);
+        invoke(statement, sqlSession -> {
+            sqlSession.select(statement, parameter, rowBounds, handler);
+            return null;
+        });
     }
 
     /**
@@ -282,7 +1077,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public int insert(String statement) {
-        return this.sqlSessionProxy.insert(statement);
+        if (isWriteBehind(statement)) {
+            return writeBehind(statement, null);
+        }
+        return invokeStatement(statement, null, null, (sqlSession, id, param) -> sqlSession.insert(id));
     }
 
     /**
@@ -290,7 +1088,25 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public int insert(String statement, Object parameter) {
-        return this.sqlSessionProxy.insert(statement, parameter);
+        if (isWriteBehind(statement)) {
+            return writeBehind(statement, parameter);
+        }
+        return invokeStatement(statement, null, parameter, (sqlSession, id, param) -> sqlSession.insert(id, param));
+    }
+
+    /**
+     * Same as {@link #insert(String, Object)} but runs the statement with the given JDBC
+     * options, which take precedence over the ones bound to the current thread by
+     * {@code StatementOptionsHolder}. It requires the {@code StatementOptionsInterceptor}.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param statementOptions the JDBC options of the statement
+     * @return int The number of rows affected by the insert.
+     * @since 2.0.2
+     */
+    public int insert(String statement, Object parameter, StatementOptions statementOptions) {
+        return withStatementOptions(statementOptions, () -> insert(statement, parameter));
     }
 
     /**
@@ -298,7 +1114,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public int update(String statement) {
-        return this.sqlSessionProxy.update(statement);
+        if (isWriteBehind(statement)) {
+            return writeBehind(statement, null);
+        }
+        return invokeStatement(statement, null, null, (sqlSession, id, param) -> sqlSession.update(id));
     }
 
     /**
@@ -306,7 +1125,25 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public int update(String statement, Object parameter) {
-        return this.sqlSessionProxy.update(statement, parameter);
+        if (isWriteBehind(statement)) {
+            return writeBehind(statement, parameter);
+        }
+        return invokeStatement(statement, null, parameter, (sqlSession, id, param) -> sqlSession.update(id, param));
+    }
+
+    /**
+     * Same as {@link #update(String, Object)} but runs the statement with the given JDBC
+     * options, which take precedence over the ones bound to the current thread by
+     * {@code StatementOptionsHolder}. It requires the {@code StatementOptionsInterceptor}.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param statementOptions the JDBC options of the statement
+     * @return int The number of rows affected by the update.
+     * @since 2.0.2
+     */
+    public int update(String statement, Object parameter, StatementOptions statementOptions) {
+        return withStatementOptions(statementOptions, () -> update(statement, parameter));
     }
 
     /**
@@ -314,7 +1151,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public int delete(String statement) {
-        return this.sqlSessionProxy.delete(statement);
+        if (isWriteBehind(statement)) {
+            return writeBehind(statement, null);
+        }
+        return invokeStatement(statement, null, null, (sqlSession, id, param) -> sqlSession.delete(id));
     }
 
     /**
@@ -322,7 +1162,184 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public int delete(String statement, Object parameter) {
-        return this.sqlSessionProxy.delete(statement, parameter);
+        if (isWriteBehind(statement)) {
+            return writeBehind(statement, parameter);
+        }
+        return invokeStatement(statement, null, parameter, (sqlSession, id, param) -> sqlSession.delete(id, param));
+    }
+
+    /**
+     * Same as {@link #delete(String, Object)} but runs the statement with the given JDBC
+     * options, which take precedence over the ones bound to the current thread by
+     * {@code StatementOptionsHolder}. It requires the {@code StatementOptionsInterceptor}.
+     *
+     * @param statement Unique identifier matching the statement to use.
+     * @param parameter A parameter object to pass to the statement.
+     * @param statementOptions the JDBC options of the statement
+     * @return int The number of rows affected by the delete.
+     * @since 2.0.2
+     */
+    public int delete(String statement, Object parameter, StatementOptions statementOptions) {
+        return withStatementOptions(statementOptions, () -> delete(statement, parameter));
+    }
+
+    /**
+     * Runs an INSERT once per parameter as JDBC batches of {@code bulkBatchSize} rows and returns
+     * the total number of inserted rows.
+     * <p>
+     * The batches run on a {@code BATCH} session whatever the executor type of this template: in a
+     * Spring transaction it shares the transaction connection with the other sessions of the
+     * transaction, outside of it the rows are committed as the connection commits them, so rows of
+     * batches sent before a failing one may stay written unless a transaction is used. Only the
+     * update counts of sent batches are kept, not their parameters. Rows whose driver reports
+     * {@code Statement.SUCCESS_NO_INFO} count as one row. A unit of work holds a single session
+     * and connection, so in a unit of work of another executor type the rows are inserted one by
+     * one on its session, still committed with the unit of work.
+     *
+     * @param statement Unique identifier matching the statement to execute.
+     * @param parameters the parameter objects of the rows
+     * @return the number of inserted rows
+     * @since 2.0.2
+     */
+    public long insertAll(String statement, Collection<?> parameters) {
+        return writeAll(statement, parameters, SqlSession::insert);
+    }
+
+    /**
+     * Same as {@link #insertAll(String, Collection)} for a statement inserting or updating each row
+     * by itself, like a {@code MERGE} or an {@code INSERT ... ON CONFLICT} statement.
+     *
+     * @param statement Unique identifier matching the statement to execute.
+     * @param parameters the parameter objects of the rows
+     * @return the number of rows inserted or updated, as reported by the driver
+     * @since 2.0.2
+     */
+    public long upsertAll(String statement, Collection<?> parameters) {
+        return writeAll(statement, parameters, SqlSession::update);
+    }
+
+    /**
+     * Upserts rows with portable statements: every row is updated, then the rows the update did not
+     * match are inserted, batch by batch as in {@link #insertAll(String, Collection)}. This requires
+     * a driver reporting the update count of every batched statement. Rows inserted concurrently by
+     * another transaction between the update and the insert make the insert fail.
+     *
+     * @param updateStatement the statement updating a row, matching no row if it does not exist
+     * @param insertStatement the statement inserting a row
+     * @param parameters the parameter objects of the rows, passed to both statements
+     * @return the number of rows updated or inserted
+     * @since 2.0.2
+     */
+    public long upsertAll(String updateStatement, String insertStatement, Collection<?> parameters) {
+        notNull(insertStatement, "Parameter 'insertStatement' must be not null");
+        notNull(parameters, "Parameter 'parameters' must be not null");
+        if (parameters.isEmpty()) {
+            return 0;
+        }
+        int batchSize = this.bulkBatchSize;
+        return invoke(updateStatement, null, bulkExecutorType(), sqlSession -> {
+            long rowCount = 0;
+            int pending = 0;
+            for (Object parameter : parameters) {
+                int updated = sqlSession.update(updateStatement, parameter);
+                // a non BATCH session reports the count right away
+                rowCount += updated == 0 ? updateCountOf(sqlSession.insert(insertStatement, parameter)) : updateCountOf(updated);
+                if (++pending == batchSize) {
+                    rowCount += insertNotUpdated(sqlSession, updateStatement, insertStatement);
+                    pending = 0;
+                }
+            }
+            return rowCount + insertNotUpdated(sqlSession, updateStatement, insertStatement);
+        });
+    }
+
+    private long writeAll(String statement, Collection<?> parameters, BulkWrite write) {
+        notNull(parameters, "Parameter 'parameters' must be not null");
+        if (parameters.isEmpty()) {
+            return 0;
+        }
+        int batchSize = this.bulkBatchSize;
+        return invoke(statement, null, bulkExecutorType(), sqlSession -> {
+            long rowCount = 0;
+            int pending = 0;
+            for (Object parameter : parameters) {
+                rowCount += updateCountOf(write.write(sqlSession, statement, parameter));
+                if (++pending == batchSize) {
+                    rowCount += updateCountOf(sqlSession.flushStatements());
+                    pending = 0;
+                }
+            }
+            return rowCount + updateCountOf(sqlSession.flushStatements());
+        });
+    }
+
+    /**
+     * Sends the batched updates and then inserts the rows they did not match.
+     */
+    private static long insertNotUpdated(SqlSession sqlSession, String updateStatement, String insertStatement) {
+        long rowCount = 0;
+        boolean inserted = false;
+        for (BatchResult batchResult : sqlSession.flushStatements()) {
+            int[] updateCounts = batchResult.getUpdateCounts();
+            List<Object> parameterObjects = batchResult.getParameterObjects();
+            for (int i = 0; i < updateCounts.length; i++) {
+                if (updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                    throw new InvalidDataAccessApiUsageException("Statement '" + updateStatement
+                            + "' cannot be used to upsert rows as the driver does not report its update counts");
+                } else if (updateCounts[i] == 0) {
+                    sqlSession.insert(insertStatement, parameterObjects.get(i));
+                    inserted = true;
+                } else {
+                    rowCount += updateCounts[i];
+                }
+            }
+        }
+        return inserted ? rowCount + updateCountOf(sqlSession.flushStatements()) : rowCount;
+    }
+
+    /**
+     * Returns the executor type bulk writes run with: {@code BATCH}, in a Spring transaction too as
+     * its holder adds a {@code BATCH} session sharing its connection. A unit of work of another
+     * type is the exception: its single session cannot change its executor type, and a separate
+     * {@code BATCH} session would write on another connection, outside of the unit of work.
+     */
+    private ExecutorType bulkExecutorType() {
+        SqlSessionHolder holder = this.sessionHolderSlot.get();
+        return holder != null && !holder.isSynchronizedWithTransaction() ? holder.getExecutorType() : ExecutorType.BATCH;
+    }
+
+    private static long updateCountOf(int updateCount) {
+        return updateCount == BatchExecutor.BATCH_UPDATE_RETURN_VALUE ? 0 : updateCount;
+    }
+
+    private static long updateCountOf(List<BatchResult> batchResults) {
+        long rowCount = 0;
+        for (BatchResult batchResult : batchResults) {
+            for (int updateCount : batchResult.getUpdateCounts()) {
+                rowCount += updateCount == Statement.SUCCESS_NO_INFO ? 1 : Math.max(updateCount, 0);
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * A call of a single statement over the acquired session.
+     */
+    @FunctionalInterface
+    private interface SessionCall<T> {
+
+        T apply(SqlSession sqlSession, String statement, Object parameter);
+
+    }
+
+    /**
+     * A write of a bulk call.
+     */
+    @FunctionalInterface
+    private interface BulkWrite {
+
+        int write(SqlSession sqlSession, String statement, Object parameter);
+
     }
 
     /**
@@ -381,7 +1398,10 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public void clearCache() {
-        this.sqlSessionProxy.clearCache();
+        invoke(null, sqlSession -> {
+            sqlSession.clearCache();
+            return null;
+        });
     }
 
     /**
@@ -398,7 +1418,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public Connection getConnection() {
-        return this.sqlSessionProxy.getConnection();
+        return invoke(null, SqlSession::getConnection);
     }
 
     /**
@@ -409,7 +1429,7 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
      */
     @Override
     public List<BatchResult> flushStatements() {
-        return this.sqlSessionProxy.flushStatements();
+        return invoke(null, SqlSession::flushStatements);
     }
 
     /**
@@ -435,59 +1455,457 @@ public class SqlSessionTemplate implements SqlSession, DisposableBean {
     }
 
     /**
-     * Proxy needed to route MyBatis method calls to the proper SqlSession got
-     * from Spring's Transaction Manager
-     * It also unwraps exceptions thrown by {@code Method#invoke(Object, Object...)} to
-     * pass a {@code PersistenceException} to the {@code PersistenceExceptionTranslator}.
+     * Routes a MyBatis method call to the proper SqlSession got from Spring's
+     * Transaction Manager. Every {@code SqlSession} method of this template calls
+     * the acquired session directly through this method, so no reflection nor
+     * argument arrays are needed per call.
+     * <p>
+     * Non transactional sessions are committed and closed once the call ends and any
+     * {@code PersistenceException} is passed to the {@code PersistenceExceptionTranslator}.
+     *
+     * 在和 spring 或者 spring-boot 结合后，所有 {@link org.apache.ibatis.binding.MapperProxy#sqlSession} 都是这个类
+     * 而这个类在调用 {@link SqlSession} 所有的接口都是经过这个方法
+     *
+     * @param statement the statement id run by the call, or {@code null} if it does not run one
+     * @param action the call to run over the acquired SqlSession
+     * @param <T> the result type of the call
+     * @return the result of the call
      */
-    private class SqlSessionInterceptor implements InvocationHandler {
-        @Override
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    private <T> T invoke(String statement, Function<SqlSession, T> action) {
+        return invoke(statement, null, action);
+    }
+
+    /**
+     * Same as {@link #invoke(String, Function)} for a statement whose {@code MappedStatement} may
+     * already be resolved, in which case it is not looked up again.
+     */
+    private <T> T invoke(String statement, MappedStatement ms, Function<SqlSession, T> action) {
+        return invoke(statement, ms, this.executorType, action);
+    }
+
+    /**
+     * Same as {@link #invoke(String, MappedStatement, Function)} on a session of the given
+     * executor type, which joins the current transaction if any.
+     */
+    private <T> T invoke(String statement, MappedStatement ms, ExecutorType executorType, Function<SqlSession, T> action) {
+        // the action is passed as the parameter so the call itself captures nothing
+        return invoke(statement, ms, executorType, action, SqlSessionTemplate::applyAction);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T applyAction(SqlSession sqlSession, String statement, Object action) {
+        return ((Function<SqlSession, T>) action).apply(sqlSession);
+    }
+
+    /**
+     * Runs a call taking the statement and its parameter. Calls that capture nothing, as the ones
+     * of the single statement methods, do not allocate per call.
+     */
+    private <T> T invokeStatement(String statement, MappedStatement ms, Object parameter, SessionCall<T> call) {
+        return invoke(statement, ms, this.executorType, parameter, call);
+    }
+
+    private <T> T invoke(String statement, MappedStatement ms, ExecutorType executorType, Object parameter, SessionCall<T> call) {
+        if (statement != null) {
+            checkDeadline(statement);
+        }
+        if (!this.writeBehindStatements.isEmpty()) {
+            flushWriteBehind(statement, ms);
+        }
+        Bulkhead.Permit permit = statement == null ? null : acquirePermit(statement);
+        if (permit == null) {
+            return invokeOnSession(statement, ms, executorType, parameter, call);
+        }
+        try {
+            return invokeOnSession(statement, ms, executorType, parameter, call);
+        } finally {
+            permit.release();
+        }
+    }
+
+    private <T> T invokeOnSession(String statement, MappedStatement ms, ExecutorType executorType, Object parameter,
+                                  SessionCall<T> call) {
+        /*
+         * 调用 SqlSessionUtils 的 getSqlSession 方法从 Spring 的事务管理器获取合适的 SqlSession
+         * 这里就是保证 SqlSessionTemplate 即便是单例，但是同样是线程安全的
+         */
+        SqlSession sqlSession = getSqlSession(this.sessionHolderSlot, this.sqlSessionFactory, executorType, this.exceptionTranslator);
+        SqlSessionMetrics metrics = statement == null ? null : this.sqlSessionMetrics;
+        long start = metrics == null ? 0L : System.nanoTime();
+        // read after getSqlSession as it may have bound a new holder
+        SqlSessionHolder holder = this.sessionHolderSlot.get();
+        boolean transactional = holder != null && holder.containsSqlSession(sqlSession);
+
+        try {
+            T result = call.apply(sqlSession, statement, parameter);
+
             /*
-             * 调用 SqlSessionUtils 的 getSqlSession 方法从 Spring 的事务管理器获取合适的 SqlSession
-             * 这里就是保证 SqlSessionTemplate 即便是单例，但是同样是线程安全的
+             * 判断 sqlSession 是否被 Spring 事务管理，也就是 sqlSession 被放在 Spring 事务管理的本地线程缓存中。
+             * 如果不是，则需要自己提交。如果是，则 Spring 通过代理机制，进行提交和回滚
              */
-            SqlSession sqlSession = getSqlSession(SqlSessionTemplate.this.sqlSessionFactory,
-                    SqlSessionTemplate.this.executorType, SqlSessionTemplate.this.exceptionTranslator);
+            if (!transactional && !isReleasableSelect(statement, ms)) {
+                // force commit even on non-dirty sessions because some databases require
+                // a commit/rollback before calling close()
+                sqlSession.commit(true);
+            }
+            if (metrics != null) {
+                metrics.recordSuccess(statement, executorType, transactional, System.nanoTime() - start,
+                        rowCountOf(statement, ms, result));
+            }
+            return result;
+        } catch (Throwable t) {
+            if (metrics != null) {
+                metrics.recordFailure(statement, executorType, transactional, System.nanoTime() - start, t);
+            }
+            /* 如果出现异常，则利用异常转换器将Mybatis的异常转为Spring的DataAccessException */
+            if (this.exceptionTranslator != null && t instanceof PersistenceException) {
+                // release the connection to avoid a deadlock if the translator is no loaded. See issue #22
+                closeSqlSession(sqlSession, holder, this.sessionHolderSlot);
+                sqlSession = null;
+                RuntimeException dataAccessException = this.exceptionTranslator.translateExceptionIfPossible((PersistenceException) t);
+                if (dataAccessException != null) {
+                    throw dataAccessException;
+                }
+            }
+            throw t;
+        } finally {
+            /* 方法调用完毕后，关闭sqlSession连接 */
+            if (sqlSession != null) {
+                closeSqlSession(sqlSession, holder, this.sessionHolderSlot);
+            }
+        }
+    }
 
-            try {
-                /*
-                 * 这里的 method 就是 mapper 对应的方法，而这里 sqlSession 就是真正执行这个方法的对象
-                 * args 就是这个方法的参数
-                 * 所以效果就是: sqlSession.method(args)
-                 */
-                Object result = method.invoke(sqlSession, args);
-
-                /*
-                 * 判断 sqlSession 是否被 Spring 事务管理，也就是 sqlSession 被放在 Spring 事务管理的本地线程缓存中。
-                 * 如果不是，则需要自己提交。如果是，则 Spring 通过代理机制，进行提交和回滚
-                 */
-                if (!isSqlSessionTransactional(sqlSession, SqlSessionTemplate.this.sqlSessionFactory)) {
-                    // force commit even on non-dirty sessions because some databases require
-                    // a commit/rollback before calling close()
-                    sqlSession.commit(true);
+    /**
+     * Opens a cursor. When a transaction or a unit of work is active the cursor lives as long as
+     * its session. Otherwise the cursor gets its own session and closes it when it is closed.
+     */
+    private <T> Cursor<T> openCursor(String statement, Function<SqlSession, Cursor<T>> action) {
+        if (isSqlSessionBound()) {
+            return invoke(statement, action);
+        }
+
+        checkDeadline(statement);
+        Bulkhead.Permit permit = acquirePermit(statement);
+        SqlSession sqlSession;
+        try {
+            sqlSession = getSqlSession(this.sessionHolderSlot, this.sqlSessionFactory, this.executorType, this.exceptionTranslator);
+        } catch (RuntimeException e) {
+            release(permit);
+            throw e;
+        }
+        SqlSessionMetrics metrics = this.sqlSessionMetrics;
+        long start = metrics == null ? 0L : System.nanoTime();
+        try {
+            Cursor<T> cursor = action.apply(sqlSession);
+            if (metrics != null) {
+                metrics.recordSuccess(statement, this.executorType, false, System.nanoTime() - start, -1);
+            }
+            return new ManagedCursor<>(cursor, sqlSession, statement, !isReleasableSelect(statement, null),
+                    this.exceptionTranslator, permit == null ? null : permit::release, this.sessionHolderSlot.getLeakTracker());
+        } catch (RuntimeException e) {
+            if (metrics != null) {
+                metrics.recordFailure(statement, this.executorType, false, System.nanoTime() - start, e);
+            }
+            sqlSession.close();
+            release(permit);
+            throw translateExceptionIfPossible(e);
+        }
+    }
+
+    /**
+     * Waits for a bulkhead permit for a call that will get a connection of its own, calls sharing
+     * the session of a transaction or a unit of work are not limited. The first call of a scope
+     * with synchronization but no transaction, like {@code SUPPORTS}, opens the connection the scope
+     * keeps, so its permit is held until the scope completes.
+     *
+     * @param statement the statement id of the call, or {@code null} for a unit of work
+     * @return the permit to release once the call is done, or {@code null}
+     */
+    private Bulkhead.Permit acquirePermit(String statement) {
+        Bulkhead bulkhead = this.bulkhead;
+        if (bulkhead == null || isSqlSessionHolderBound()) {
+            return null;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (!TransactionSynchronizationManager.isActualTransactionActive()
+                    && TransactionSynchronizationManager.getResource(this.bulkheadScopeKey) == null) {
+                Bulkhead.Permit permit = bulkhead.acquire(statement);
+                if (permit != null) {
+                    ScopePermitSynchronization synchronization = new ScopePermitSynchronization(this.bulkheadScopeKey, permit);
+                    TransactionSynchronizationManager.bindResource(this.bulkheadScopeKey, synchronization);
+                    TransactionSynchronizationManager.registerSynchronization(synchronization);
                 }
-                return result;
-            } catch (Throwable t) {
-                /* 如果出现异常，则利用异常转换器将Mybatis的异常转为Spring的DataAccessException */
-                Throwable unwrapped = unwrapThrowable(t);
-                if (SqlSessionTemplate.this.exceptionTranslator != null && unwrapped instanceof PersistenceException) {
-                    // release the connection to avoid a deadlock if the translator is no loaded. See issue #22
-                    closeSqlSession(sqlSession, SqlSessionTemplate.this.sqlSessionFactory);
-                    sqlSession = null;
-                    Throwable translated = SqlSessionTemplate.this.exceptionTranslator.translateExceptionIfPossible((PersistenceException) unwrapped);
-                    if (translated != null) {
-                        unwrapped = translated;
+            }
+            return null;
+        }
+        return bulkhead.acquire(statement);
+    }
+
+    private static void release(Bulkhead.Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * Fails a call made after its deadline before it gets a session, and so a connection. As with
+     * statement options, a deadline also fails the call if no interceptor can apply it to the
+     * query timeout.
+     */
+    private void checkDeadline(String statement) {
+        Deadline deadline = DeadlineHolder.currentDeadline();
+        if (deadline == null) {
+            return;
+        }
+        if (deadline.isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded before running statement '" + statement + "'");
+        }
+        if (!this.deadlineSupported) {
+            if (!StatementOptionsInterceptor.isRegistered(this.sqlSessionFactory.getConfiguration())) {
+                throw new IllegalStateException(
+                        "StatementOptionsInterceptor must be registered as a MyBatis plugin to run statements with a deadline");
+            }
+            // plugins are never removed
+            this.deadlineSupported = true;
+        }
+    }
+
+    /**
+     * Checks if a Spring transaction or a unit of work is bound to the current thread, in which case
+     * calls share its session.
+     */
+    private boolean isSqlSessionBound() {
+        return isSqlSessionHolderBound() || TransactionSynchronizationManager.isSynchronizationActive();
+    }
+
+    /**
+     * Checks if a session holder of the factory is bound to the current thread.
+     */
+    boolean isSqlSessionHolderBound() {
+        return this.sessionHolderSlot.get() != null;
+    }
+
+    private boolean isWriteBehind(String statement) {
+        return !this.writeBehindStatements.isEmpty()
+                && this.writeBehindStatements.contains(statement)
+                && canWriteBehind();
+    }
+
+    private boolean canWriteBehind() {
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && StatementOptionsHolder.getStatementOptions() == null
+                && getConfiguration().getEnvironment().getTransactionFactory() instanceof SpringManagedTransactionFactory;
+    }
+
+    private int writeBehind(String statement, Object parameter) {
+        WriteBehindBuffer.bind(this.sqlSessionFactory, this.exceptionTranslator)
+                .add(statement, parameter, this.writeBehindFlushSize);
+        return BatchExecutor.BATCH_UPDATE_RETURN_VALUE;
+    }
+
+    /**
+     * Flushes the writes buffered by the current transaction before running the given statement,
+     * unless it is a SELECT that does not read them.
+     */
+    private void flushWriteBehind(String statement, MappedStatement ms) {
+        WriteBehindBuffer buffer = WriteBehindBuffer.current(this.sqlSessionFactory);
+        if (buffer == null || buffer.isEmpty()) {
+            return;
+        }
+        if (ms == null && statement != null) {
+            ms = getConfiguration().getMappedStatement(statement, false);
+        }
+        if (ms != null && ms.getSqlCommandType() == SqlCommandType.SELECT && ms.getStatementType() != StatementType.CALLABLE) {
+            buffer.flushIfRead(ms);
+        } else {
+            buffer.flush();
+        }
+    }
+
+    private BatchLoader batchLoaderOf(String statement) {
+        if (this.batchLoaders.isEmpty()) {
+            return null;
+        }
+        BatchLoader batchLoader = this.batchLoaders.get(statement);
+        return batchLoader == null || !canBatchLoad() ? null : batchLoader;
+    }
+
+    /**
+     * Calls with a deadline are not batched: the first caller of a batch runs it for the others, so
+     * one deadline would apply to all of them.
+     */
+    private boolean canBatchLoad() {
+        return StatementOptionsHolder.getStatementOptions() == null && DeadlineHolder.getDeadline() == null
+                && !isSqlSessionBound();
+    }
+
+    private boolean isSingleFlight(String statement) {
+        return !this.singleFlightStatements.isEmpty()
+                && this.singleFlightStatements.contains(statement)
+                && canSingleFlight();
+    }
+
+    private boolean canSingleFlight() {
+        return StatementOptionsHolder.getStatementOptions() == null && !isSqlSessionBound();
+    }
+
+    /**
+     * Returns the settings of the statement of the given handle in this template, resolving them
+     * again if they were resolved by another template or before the template settings changed.
+     */
+    private StatementHandle.Settings settingsOf(StatementHandle handle) {
+        notNull(handle, "Parameter 'handle' must be not null");
+        int version = this.statementSettingsVersion;
+        StatementHandle.Settings settings = handle.getSettings();
+        if (settings == null || !settings.isValidFor(this, version)) {
+            isTrue(handle.getMappedStatement().getConfiguration() == getConfiguration(),
+                    () -> "Statement handle '" + handle.getId() + "' belongs to another configuration");
+            String statement = handle.getId();
+            settings = new StatementHandle.Settings(this, version, this.singleFlightStatements.contains(statement),
+                    this.batchLoaders.get(statement), this.writeBehindStatements.contains(statement));
+            handle.setSettings(settings);
+        }
+        return settings;
+    }
+
+    private <T> T singleFlightSelectOne(String statement, Object parameter) {
+        return singleFlightSelectOne(statement, null, parameter);
+    }
+
+    private <T> T singleFlightSelectOne(String statement, MappedStatement ms, Object parameter) {
+        List<T> list = singleFlightSelectList(statement, ms, parameter, RowBounds.DEFAULT);
+        if (list.size() == 1) {
+            return list.get(0);
+        } else if (list.size() > 1) {
+            // same as DefaultSqlSession#selectOne
+            throw translateExceptionIfPossible(new TooManyResultsException(
+                    "Expected one result (or null) to be returned by selectOne(), but found: " + list.size()));
+        }
+        return null;
+    }
+
+    private <E> List<E> singleFlightSelectList(String statement, Object parameter, RowBounds rowBounds) {
+        return singleFlightSelectList(statement, null, parameter, rowBounds);
+    }
+
+    private <E> List<E> singleFlightSelectList(String statement, MappedStatement ms, Object parameter, RowBounds rowBounds) {
+        CacheKey cacheKey;
+        try {
+            cacheKey = SingleFlight.cacheKey(ms != null ? ms : getConfiguration().getMappedStatement(statement), parameter, rowBounds);
+        } catch (RuntimeException e) {
+            throw translateExceptionIfPossible(ExceptionFactory.wrapException("Error querying database.  Cause: " + e, e));
+        }
+        SqlSessionMetrics metrics = this.sqlSessionMetrics;
+        long start = metrics == null ? 0L : System.nanoTime();
+        return this.singleFlight.execute(statement, cacheKey,
+                () -> invoke(statement, ms, sqlSession -> sqlSession.<E>selectList(statement, parameter, rowBounds)),
+                () -> {
+                    if (metrics != null) {
+                        metrics.recordCoalesced(statement, this.executorType, System.nanoTime() - start);
                     }
-                }
-                throw unwrapped;
-            } finally {
-                /* 方法调用完毕后，关闭sqlSession连接 */
-                if (sqlSession != null) {
-                    closeSqlSession(sqlSession, SqlSessionTemplate.this.sqlSessionFactory);
-                }
+                });
+    }
+
+    /**
+     * Counts the rows returned or affected by a call for the {@code SqlSessionMetrics}. Cursors are
+     * not counted because they are still open when the call ends.
+     */
+    private int rowCountOf(String statement, MappedStatement ms, Object result) {
+        if (result == null) {
+            return 0;
+        } else if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        } else if (result instanceof Map) {
+            return ((Map<?, ?>) result).size();
+        } else if (result instanceof Cursor) {
+            return -1;
+        } else if ((result instanceof Integer || result instanceof Long)
+                && (ms != null ? ms : getConfiguration().getMappedStatement(statement)).getSqlCommandType() != SqlCommandType.SELECT) {
+            return (int) Math.min(Integer.MAX_VALUE, ((Number) result).longValue());
+        }
+        return 1;
+    }
+
+    private RuntimeException translateExceptionIfPossible(RuntimeException e) {
+        if (this.exceptionTranslator != null && e instanceof PersistenceException) {
+            RuntimeException translated = this.exceptionTranslator.translateExceptionIfPossible(e);
+            if (translated != null) {
+                return translated;
             }
         }
+        return e;
+    }
+
+    private <T> T withStatementOptions(StatementOptions statementOptions, Supplier<T> call) {
+        notNull(statementOptions, "Parameter 'statementOptions' must be not null");
+        checkStatementOptionsSupported();
+        return StatementOptionsHolder.callWith(
+                statementOptions.withDefaults(StatementOptionsHolder.getStatementOptions()), call);
+    }
+
+    private void checkStatementOptionsSupported() {
+        if (!StatementOptionsInterceptor.isRegistered(getConfiguration())) {
+            throw new IllegalStateException(
+                    "StatementOptionsInterceptor must be registered as a MyBatis plugin to use statement options");
+        }
+    }
+
+    /**
+     * Checks if a non transactional session that ran the given statement can be closed without
+     * committing it, according to the {@code SelectCompletionPolicy}. Callable statements are never
+     * released this way because they may write even when mapped as a SELECT.
+     */
+    private boolean isReleasableSelect(String statement, MappedStatement ms) {
+        if (statement == null || this.selectCompletionPolicy != SelectCompletionPolicy.RELEASE) {
+            return false;
+        }
+        if (ms == null) {
+            ms = getConfiguration().getMappedStatement(statement);
+        }
+        return ms.getSqlCommandType() == SqlCommandType.SELECT && ms.getStatementType() != StatementType.CALLABLE;
+    }
+
+    /**
+     * Holds the bulkhead permit of a scope with synchronization but no transaction until it
+     * completes, as its connection is kept until then.
+     */
+    private static final class ScopePermitSynchronization extends TransactionSynchronizationAdapter {
+
+        private final Object key;
+
+        private final Bulkhead.Permit permit;
+
+        ScopePermitSynchronization(Object key, Bulkhead.Permit permit) {
+            this.key = key;
+            this.permit = permit;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(this.key);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(this.key, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(this.key);
+            this.permit.release();
+        }
     }
 
 }
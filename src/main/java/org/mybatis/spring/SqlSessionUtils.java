@@ -17,6 +17,10 @@ package org.mybatis.spring;
 
 import static org.springframework.util.Assert.notNull;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ibatis.cache.decorators.TransactionalCache;
 import org.apache.ibatis.exceptions.PersistenceException;
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.session.ExecutorType;
@@ -24,6 +28,8 @@ import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.mybatis.logging.Logger;
 import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.leak.OpenResourceType;
+import org.mybatis.spring.leak.ResourceLeakTracker;
 import org.mybatis.spring.transaction.SpringManagedTransactionFactory;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.TransientDataAccessResourceException;
@@ -83,27 +89,41 @@ public final class SqlSessionUtils {
      * @see SpringManagedTransactionFactory
      */
     public static SqlSession getSqlSession(SqlSessionFactory sessionFactory, ExecutorType executorType, PersistenceExceptionTranslator exceptionTranslator) {
+        notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
+        return getSqlSession(SqlSessionHolderSlot.forFactory(sessionFactory), sessionFactory, executorType, exceptionTranslator);
+    }
+
+    /**
+     * Same as {@link #getSqlSession(SqlSessionFactory, ExecutorType, PersistenceExceptionTranslator)}
+     * with the holder slot of the factory already resolved.
+     */
+    static SqlSession getSqlSession(SqlSessionHolderSlot slot, SqlSessionFactory sessionFactory, ExecutorType executorType,
+                                    PersistenceExceptionTranslator exceptionTranslator) {
 
         notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
         notNull(executorType, NO_EXECUTOR_TYPE_SPECIFIED);
 
         /* 从线程中获取 sqlSession */
-        SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+        SqlSessionHolder holder = slot.get();
 
         /* 如果线程中有说明开启了事务 */
-        SqlSession session = sessionHolder(executorType, holder);
+        SqlSession session = sessionHolder(slot, sessionFactory, executorType, holder);
         if (session != null) {
             return session;
         }
 
+        // give back the connections of leaked cursors before taking a new one
+        ManagedCursor.releaseAbandonedCursors();
+
         LOGGER.debug(() -> "Creating a new SqlSession");
         /*
          * 如果线程中没有说明没有开启事务，所以新建一个 sqlSession
          * 这里新建 sqlSession 并不是就是意味着新建一个连接，因为存在连接池概念
          */
         session = sessionFactory.openSession(executorType);
+        track(slot, session);
 
-        registerSessionHolder(sessionFactory, executorType, exceptionTranslator, session);
+        registerSessionHolder(slot, sessionFactory, executorType, exceptionTranslator, session);
 
         return session;
     }
@@ -116,12 +136,13 @@ public final class SqlSessionUtils {
      * Further assume that if an exception is thrown, whatever started the transaction will
      * handle closing / rolling back the Connection associated with the SqlSession.
      *
+     * @param slot the holder slot of the sqlSessionFactory.
      * @param sessionFactory sqlSessionFactory used for registration.
      * @param executorType executorType used for registration.
      * @param exceptionTranslator persistenceExceptionTranslator used for registration.
      * @param session sqlSession used for registration.
      */
-    private static void registerSessionHolder(SqlSessionFactory sessionFactory, ExecutorType executorType,
+    private static void registerSessionHolder(SqlSessionHolderSlot slot, SqlSessionFactory sessionFactory, ExecutorType executorType,
                                               PersistenceExceptionTranslator exceptionTranslator, SqlSession session) {
         SqlSessionHolder holder;
         if (TransactionSynchronizationManager.isSynchronizationActive()) {
@@ -131,8 +152,8 @@ public final class SqlSessionUtils {
                 LOGGER.debug(() -> "Registering transaction synchronization for SqlSession [" + session + "]");
 
                 holder = new SqlSessionHolder(session, executorType, exceptionTranslator);
-                TransactionSynchronizationManager.bindResource(sessionFactory, holder);
-                TransactionSynchronizationManager.registerSynchronization(new SqlSessionSynchronization(holder, sessionFactory));
+                slot.bind(sessionFactory, holder);
+                TransactionSynchronizationManager.registerSynchronization(new SqlSessionSynchronization(holder, sessionFactory, slot));
                 holder.setSynchronizedWithTransaction(true);
                 holder.requested();
             } else {
@@ -149,21 +170,114 @@ public final class SqlSessionUtils {
 
     }
 
-    private static SqlSession sessionHolder(ExecutorType executorType, SqlSessionHolder holder) {
+    private static SqlSession sessionHolder(SqlSessionHolderSlot slot, SqlSessionFactory sessionFactory, ExecutorType executorType,
+                                            SqlSessionHolder holder) {
         SqlSession session = null;
         if (holder != null && holder.isSynchronizedWithTransaction()) {
+            SqlSession executorSession = holder.getSqlSession(executorType);
+            if (executorSession == null) {
+                // SpringManagedTransaction joins the connection of the transaction
+                executorSession = sessionFactory.openSession(executorType);
+                track(slot, executorSession);
+                holder.addSqlSession(executorType, executorSession);
+                LOGGER.debug(() -> "Adding a " + executorType + " SqlSession to the current transaction");
+            }
+            switchExecutorType(holder, executorType);
+
+            holder.requested();
+
+            LOGGER.debug(() -> "Fetched SqlSession [" + holder.getSqlSession(executorType) + "] from current transaction");
+            session = executorSession;
+        } else if (holder != null) {
+            // not synchronized with a transaction, so it has been bound by openUnitOfWork()
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                throw new TransientDataAccessResourceException(
+                        "Cannot join a Spring transaction started inside a SqlSessionTemplate unit of work");
+            }
             if (holder.getExecutorType() != executorType) {
-                throw new TransientDataAccessResourceException("Cannot change the ExecutorType when there is an existing transaction");
+                throw new TransientDataAccessResourceException("Cannot change the ExecutorType when there is an existing unit of work");
             }
 
             holder.requested();
 
-            LOGGER.debug(() -> "Fetched SqlSession [" + holder.getSqlSession() + "] from current transaction");
+            LOGGER.debug(() -> "Fetched SqlSession [" + holder.getSqlSession() + "] from current unit of work");
             session = holder.getSqlSession();
         }
         return session;
     }
 
+    /**
+     * Keeps the sessions of a transaction consistent when the next call uses another
+     * {@code ExecutorType} than the previous one: pending BATCH statements are flushed so they are
+     * executed before the call, and the local cache of the session of the call is cleared because
+     * the other sessions may have written since it was filled.
+     */
+    private static void switchExecutorType(SqlSessionHolder holder, ExecutorType executorType) {
+        if (holder.getCurrentExecutorType() == executorType) {
+            return;
+        }
+        SqlSession batchSession = holder.getSqlSession(ExecutorType.BATCH);
+        if (batchSession != null && executorType != ExecutorType.BATCH) {
+            LOGGER.debug(() -> "Flushing BATCH SqlSession [" + batchSession + "] before using the " + executorType + " one");
+            try {
+                batchSession.flushStatements();
+            } catch (PersistenceException p) {
+                if (holder.getPersistenceExceptionTranslator() != null) {
+                    DataAccessException translated = holder.getPersistenceExceptionTranslator().translateExceptionIfPossible(p);
+                    if (translated != null) {
+                        throw translated;
+                    }
+                }
+                throw p;
+            }
+        }
+        holder.getSqlSession(executorType).clearCache();
+        holder.setCurrentExecutorType(executorType);
+    }
+
+    /**
+     * Opens a new {@code SqlSession} and binds it to the current thread without synchronizing it with
+     * any transaction, so following calls to {@link #getSqlSession} reuse it until
+     * {@link #closeUnitOfWork} is called. Must not be called when a session is already bound.
+     *
+     * @param sessionFactory a MyBatis {@code SqlSessionFactory} to create new sessions
+     * @param executorType The executor type of the SqlSession to create
+     * @param exceptionTranslator Optional. Translates SqlSession.commit() exceptions to Spring exceptions.
+     * @return the bound SqlSession
+     */
+    static SqlSession openUnitOfWork(SqlSessionFactory sessionFactory, ExecutorType executorType,
+                                     PersistenceExceptionTranslator exceptionTranslator) {
+        notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
+        notNull(executorType, NO_EXECUTOR_TYPE_SPECIFIED);
+
+        SqlSession session = sessionFactory.openSession(executorType);
+        LOGGER.debug(() -> "Binding SqlSession [" + session + "] to a new unit of work");
+        SqlSessionHolderSlot slot = SqlSessionHolderSlot.forFactory(sessionFactory);
+        track(slot, session);
+        slot.bind(sessionFactory, new SqlSessionHolder(session, executorType, exceptionTranslator));
+        return session;
+    }
+
+    /**
+     * Unbinds and closes a {@code SqlSession} bound by {@link #openUnitOfWork}.
+     *
+     * @param session the SqlSession of the unit of work
+     * @param sessionFactory a factory of SqlSession
+     */
+    static void closeUnitOfWork(SqlSession session, SqlSessionFactory sessionFactory) {
+        notNull(session, NO_SQL_SESSION_SPECIFIED);
+        notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
+
+        SqlSessionHolderSlot slot = SqlSessionHolderSlot.forFactory(sessionFactory);
+        SqlSessionHolder holder = slot.get();
+        if (holder != null) {
+            slot.unbind(sessionFactory);
+        }
+        LOGGER.debug(() -> "Closing SqlSession [" + session + "] of unit of work");
+        untrack(slot, session);
+        session.close();
+    }
+
     /**
      * Checks if {@code SqlSession} passed as an argument is managed by Spring {@code TransactionSynchronizationManager}
      * If it is not, it closes it, otherwise it just updates the reference counter and
@@ -176,18 +290,32 @@ public final class SqlSessionUtils {
         notNull(session, NO_SQL_SESSION_SPECIFIED);
         notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
 
-        SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
-        if ((holder != null) && (holder.getSqlSession() == session)) {
+        SqlSessionHolderSlot slot = SqlSessionHolderSlot.forFactory(sessionFactory);
+        closeSqlSession(session, slot.get(), slot);
+    }
+
+    /**
+     * Same as {@link #closeSqlSession(SqlSession, SqlSessionFactory)} with the holder bound to the
+     * current thread already resolved.
+     *
+     * @param session a target SqlSession
+     * @param holder the holder bound to the current thread, may be {@code null}
+     * @param slot the holder slot of the factory of the session
+     */
+    static void closeSqlSession(SqlSession session, SqlSessionHolder holder, SqlSessionHolderSlot slot) {
+        if ((holder != null) && holder.containsSqlSession(session)) {
             LOGGER.debug(() -> "Releasing transactional SqlSession [" + session + "]");
             holder.released();
         } else {
             LOGGER.debug(() -> "Closing non transactional SqlSession [" + session + "]");
+            untrack(slot, session);
             session.close();
         }
     }
 
     /**
-     * Returns if the {@code SqlSession} passed as an argument is being managed by Spring
+     * Returns if the {@code SqlSession} passed as an argument is being managed by Spring,
+     * either by a transaction or by a {@code SqlSessionTemplate} unit of work
      *
      * @param session a MyBatis SqlSession to check
      * @param sessionFactory the SqlSessionFactory which the SqlSession was built with
@@ -197,9 +325,48 @@ public final class SqlSessionUtils {
         notNull(session, NO_SQL_SESSION_SPECIFIED);
         notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
 
-        SqlSessionHolder holder = (SqlSessionHolder) TransactionSynchronizationManager.getResource(sessionFactory);
+        SqlSessionHolder holder = SqlSessionHolderSlot.forFactory(sessionFactory).get();
+
+        return (holder != null) && holder.containsSqlSession(session);
+    }
 
-        return (holder != null) && (holder.getSqlSession() == session);
+    /**
+     * Sets the tracker of the sessions and cursors opened with a {@code SqlSessionFactory} and not
+     * closed yet.
+     *
+     * @param sessionFactory a factory of SqlSession
+     * @param leakTracker the tracker, or {@code null} to stop tracking
+     * @since 2.0.2
+     */
+    public static void setResourceLeakTracker(SqlSessionFactory sessionFactory, ResourceLeakTracker leakTracker) {
+        notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
+        SqlSessionHolderSlot.forFactory(sessionFactory).setLeakTracker(leakTracker);
+    }
+
+    /**
+     * Returns the tracker of the sessions and cursors opened with a {@code SqlSessionFactory}.
+     *
+     * @param sessionFactory a factory of SqlSession
+     * @return the tracker, or {@code null} if there is none
+     * @since 2.0.2
+     */
+    public static ResourceLeakTracker getResourceLeakTracker(SqlSessionFactory sessionFactory) {
+        notNull(sessionFactory, NO_SQL_SESSION_FACTORY_SPECIFIED);
+        return SqlSessionHolderSlot.forFactory(sessionFactory).getLeakTracker();
+    }
+
+    private static void track(SqlSessionHolderSlot slot, SqlSession session) {
+        ResourceLeakTracker leakTracker = slot.getLeakTracker();
+        if (leakTracker != null) {
+            leakTracker.track(session, OpenResourceType.SQL_SESSION, session.toString(), session::close);
+        }
+    }
+
+    private static void untrack(SqlSessionHolderSlot slot, SqlSession session) {
+        ResourceLeakTracker leakTracker = slot.getLeakTracker();
+        if (leakTracker != null) {
+            leakTracker.untrack(session);
+        }
     }
 
     /**
@@ -214,14 +381,25 @@ public final class SqlSessionUtils {
 
         private final SqlSessionFactory sessionFactory;
 
+        private final SqlSessionHolderSlot slot;
+
         private boolean holderActive = true;
 
-        public SqlSessionSynchronization(SqlSessionHolder holder, SqlSessionFactory sessionFactory) {
+        private boolean actualTransaction;
+
+        private boolean readOnly;
+
+        private boolean committing;
+
+        private final List<TransactionalCache> stagedCaches = new ArrayList<>();
+
+        public SqlSessionSynchronization(SqlSessionHolder holder, SqlSessionFactory sessionFactory, SqlSessionHolderSlot slot) {
             notNull(holder, "Parameter 'holder' must be not null");
             notNull(sessionFactory, "Parameter 'sessionFactory' must be not null");
 
             this.holder = holder;
             this.sessionFactory = sessionFactory;
+            this.slot = slot;
         }
 
         /**
@@ -240,7 +418,7 @@ public final class SqlSessionUtils {
         public void suspend() {
             if (this.holderActive) {
                 LOGGER.debug(() -> "Transaction synchronization suspending SqlSession [" + this.holder.getSqlSession() + "]");
-                TransactionSynchronizationManager.unbindResource(this.sessionFactory);
+                this.slot.unbind(this.sessionFactory);
             }
         }
 
@@ -251,7 +429,7 @@ public final class SqlSessionUtils {
         public void resume() {
             if (this.holderActive) {
                 LOGGER.debug(() -> "Transaction synchronization resuming SqlSession [" + this.holder.getSqlSession() + "]");
-                TransactionSynchronizationManager.bindResource(this.sessionFactory, this.holder);
+                this.slot.bind(this.sessionFactory, this.holder);
             }
         }
 
@@ -262,14 +440,20 @@ public final class SqlSessionUtils {
         public void beforeCommit(boolean readOnly) {
             // Connection commit or rollback will be handled by ConnectionSynchronization or
             // DataSourceTransactionManager.
-            // But, do cleanup the SqlSession / Executor, including flushing BATCH statements so
-            // they are actually executed.
-            // SpringManagedTransaction will no-op the commit over the jdbc connection
-            // TODO This updates 2nd level caches but the tx may be rolledback later on!
+            // But, do flush BATCH statements so they are actually executed.
+            // The SqlSession itself is committed in beforeCompletion, with its 2nd level cache changes
+            // held back until afterCompletion
             if (TransactionSynchronizationManager.isActualTransactionActive()) {
+                this.committing = true;
                 try {
-                    LOGGER.debug(() -> "Transaction synchronization committing SqlSession [" + this.holder.getSqlSession() + "]");
-                    this.holder.getSqlSession().commit();
+                    for (SqlSession session : this.holder.getSqlSessions()) {
+                        // a read-only tx has nothing to flush but the statements queued by a BATCH session
+                        if (readOnly && session != this.holder.getSqlSession(ExecutorType.BATCH)) {
+                            continue;
+                        }
+                        LOGGER.debug(() -> "Transaction synchronization flushing SqlSession [" + session + "]");
+                        session.flushStatements();
+                    }
                 } catch (PersistenceException p) {
                     if (this.holder.getPersistenceExceptionTranslator() != null) {
                         DataAccessException translated = this.holder
@@ -289,14 +473,15 @@ public final class SqlSessionUtils {
          */
         @Override
         public void beforeCompletion() {
-            // Issue #18 Close SqlSession and deregister it now
-            // because afterCompletion may be called from a different thread
+            this.actualTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+            this.readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+            // Issue #18 close the SqlSession and deregister it now because afterCompletion may be called from a
+            // different thread
             if (!this.holder.isOpen()) {
                 LOGGER.debug(() -> "Transaction synchronization deregistering SqlSession [" + this.holder.getSqlSession() + "]");
-                TransactionSynchronizationManager.unbindResource(sessionFactory);
+                this.slot.unbindIfPossible(this.sessionFactory, this.holder);
                 this.holderActive = false;
-                LOGGER.debug(() -> "Transaction synchronization closing SqlSession [" + this.holder.getSqlSession() + "]");
-                this.holder.getSqlSession().close();
+                closeSqlSessions(this.committing);
             }
         }
 
@@ -309,12 +494,65 @@ public final class SqlSessionUtils {
                 // afterCompletion may have been called from a different thread
                 // so avoid failing if there is nothing in this one
                 LOGGER.debug(() -> "Transaction synchronization deregistering SqlSession [" + this.holder.getSqlSession() + "]");
-                TransactionSynchronizationManager.unbindResourceIfPossible(sessionFactory);
+                this.slot.unbindIfPossible(this.sessionFactory, this.holder);
                 this.holderActive = false;
-                LOGGER.debug(() -> "Transaction synchronization closing SqlSession [" + this.holder.getSqlSession() + "]");
-                this.holder.getSqlSession().close();
+                closeSqlSessions(status == STATUS_COMMITTED);
+            }
+            // the 2nd level cache changes of the tx are only published once the tx is committed
+            boolean committed = this.actualTransaction && status == STATUS_COMMITTED;
+            for (TransactionalCache cache : this.stagedCaches) {
+                if (committed) {
+                    cache.commit();
+                } else {
+                    cache.rollback();
+                }
+            }
+            this.stagedCaches.clear();
+        }
+
+        private void closeSqlSessions(boolean commit) {
+            RuntimeException failure = null;
+            for (SqlSession session : this.holder.getSqlSessions()) {
+                try {
+                    closeSqlSession(session, commit);
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
             }
             this.holder.reset();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private void closeSqlSession(SqlSession session, boolean commit) {
+            try {
+                if (this.actualTransaction) {
+                    // SpringManagedTransaction will no-op the commit and rollback over the jdbc connection.
+                    // The session would also publish its 2nd level cache changes here, before the tx is
+                    // committed, so they are taken out of it first if possible.
+                    List<TransactionalCache> staged = TransactionalCaches.detach(session);
+                    if (staged != null) {
+                        this.stagedCaches.addAll(staged);
+                    }
+                    if (commit) {
+                        // without 2nd level cache changes to publish, closing the session is enough
+                        if (!this.readOnly || staged == null) {
+                            LOGGER.debug(() -> "Transaction synchronization committing SqlSession [" + session + "]");
+                            session.commit();
+                        }
+                    } else {
+                        LOGGER.debug(() -> "Transaction synchronization rolling back SqlSession [" + session + "]");
+                        session.rollback(true);
+                    }
+                }
+            } finally {
+                LOGGER.debug(() -> "Transaction synchronization closing SqlSession [" + session + "]");
+                untrack(this.slot, session);
+                session.close();
+            }
         }
     }
 
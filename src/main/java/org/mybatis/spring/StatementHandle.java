@@ -0,0 +1,119 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * A statement resolved once by {@link SqlSessionTemplate#getStatementHandle(String)}, to be reused
+ * by hot loops. Calls made with a handle skip the lookups of the statement id the template does
+ * on every call: the {@code MappedStatement} is kept by the handle, and so are the single-flight,
+ * batch loading and write-behind settings of the statement, which are only resolved again once the
+ * template settings change.
+ * <p>
+ * A handle is immutable as far as callers are concerned and can be shared by threads. It belongs
+ * to the MyBatis {@code Configuration} it was resolved from.
+ *
+ * <pre class="code">
+ * StatementHandle findById = sqlSessionTemplate.getStatementHandle(UserMapper.class, "findById");
+ * for (long id : ids) {
+ *   User user = sqlSessionTemplate.selectOne(findById, id);
+ * }
+ * </pre>
+ *
+ * @see SqlSessionTemplate#getStatementHandle(String)
+ * @see SqlSessionTemplate#getStatementHandle(Class, String)
+ * @since 2.0.2
+ */
+public final class StatementHandle {
+
+    private final MappedStatement mappedStatement;
+
+    // the settings resolved by the last template the handle was used with
+    private Settings settings;
+
+    StatementHandle(MappedStatement mappedStatement) {
+        this.mappedStatement = mappedStatement;
+    }
+
+    public String getId() {
+        return this.mappedStatement.getId();
+    }
+
+    public MappedStatement getMappedStatement() {
+        return this.mappedStatement;
+    }
+
+    public SqlCommandType getSqlCommandType() {
+        return this.mappedStatement.getSqlCommandType();
+    }
+
+    Settings getSettings() {
+        return this.settings;
+    }
+
+    void setSettings(Settings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementHandle[" + getId() + "]";
+    }
+
+    /**
+     * The settings of the statement in a template, valid as long as the template settings version
+     * does not change.
+     */
+    static final class Settings {
+
+        private final SqlSessionTemplate template;
+
+        private final int version;
+
+        private final boolean singleFlight;
+
+        private final BatchLoader batchLoader;
+
+        private final boolean writeBehind;
+
+        Settings(SqlSessionTemplate template, int version, boolean singleFlight, BatchLoader batchLoader, boolean writeBehind) {
+            this.template = template;
+            this.version = version;
+            this.singleFlight = singleFlight;
+            this.batchLoader = batchLoader;
+            this.writeBehind = writeBehind;
+        }
+
+        boolean isValidFor(SqlSessionTemplate template, int version) {
+            return this.template == template && this.version == version;
+        }
+
+        boolean isSingleFlight() {
+            return this.singleFlight;
+        }
+
+        BatchLoader getBatchLoader() {
+            return this.batchLoader;
+        }
+
+        boolean isWriteBehind() {
+            return this.writeBehind;
+        }
+    }
+
+}
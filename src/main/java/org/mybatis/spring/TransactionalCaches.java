@@ -0,0 +1,171 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.cache.TransactionalCacheManager;
+import org.apache.ibatis.cache.decorators.TransactionalCache;
+import org.apache.ibatis.executor.CachingExecutor;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.defaults.DefaultSqlSession;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Takes the 2nd level cache changes staged by a {@code SqlSession} out of its
+ * {@code TransactionalCacheManager}, so the session can be committed and closed on the transaction
+ * thread while the changes are published or discarded once the outcome of the transaction is known.
+ * <p>
+ * MyBatis has no API for this, so the staged caches are reached through the private fields of
+ * {@code DefaultSqlSession}, {@code Plugin}, {@code CachingExecutor} and
+ * {@code TransactionalCacheManager}, as laid out in MyBatis 3.5.1 (the version this module is built
+ * against). When any of them cannot be read, e.g. after they are renamed in another MyBatis version or
+ * when the module system denies access to them, a warning is logged once and the session keeps its
+ * changes: they are published when it is committed, before the transaction is, and a write only evicts
+ * the caches directly instead of staging the eviction in the other sessions.
+ *
+ * @since 2.0.2
+ */
+final class TransactionalCaches {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransactionalCaches.class);
+
+    private static final AtomicBoolean WARNED = new AtomicBoolean();
+
+    private static final Field SESSION_EXECUTOR = findField(DefaultSqlSession.class, "executor");
+
+    private static final Field PLUGIN_TARGET = findField(Plugin.class, "target");
+
+    private static final Field EXECUTOR_CACHE_MANAGER = findField(CachingExecutor.class, "tcm");
+
+    private static final Field MANAGER_CACHES = findField(TransactionalCacheManager.class, "transactionalCaches");
+
+    private TransactionalCaches() {
+        // do not instantiate
+    }
+
+    /**
+     * Removes the caches staged by a session from it.
+     *
+     * @return the staged caches, to be committed or rolled back later, or {@code null} if they cannot be
+     *         reached, in which case the session still commits or rolls them back itself
+     */
+    @SuppressWarnings("unchecked")
+    static List<TransactionalCache> detach(SqlSession session) {
+        Object executor = executorOf(session);
+        if (executor == null) {
+            return null;
+        }
+        if (MANAGER_CACHES == null) {
+            warnUnreachable("field TransactionalCacheManager.transactionalCaches is not accessible");
+            return null;
+        }
+        TransactionalCacheManager manager = managerOf(executor);
+        if (manager == null) {
+            // cacheEnabled is off, nothing is ever staged
+            return Collections.emptyList();
+        }
+        Map<Cache, TransactionalCache> caches = (Map<Cache, TransactionalCache>) ReflectionUtils.getField(MANAGER_CACHES, manager);
+        List<TransactionalCache> staged = new ArrayList<>(caches.values());
+        caches.clear();
+        return staged;
+    }
+
+    /**
+     * Stages the clearing of a cache in a session, as a write of the session would, so its
+     * following reads miss the cache until the transaction ends.
+     *
+     * @return {@code false} if the staged caches of the session cannot be reached
+     */
+    static boolean stageClear(SqlSession session, Cache cache) {
+        Object executor = executorOf(session);
+        if (executor == null) {
+            return false;
+        }
+        TransactionalCacheManager manager = managerOf(executor);
+        if (manager != null) {
+            manager.clear(cache);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the executor of a session, unwrapped from its plugins, or {@code null} if it cannot be reached.
+     */
+    private static Object executorOf(SqlSession session) {
+        if (!(session instanceof DefaultSqlSession)) {
+            return warnUnreachable("session " + session.getClass().getName() + " is not a DefaultSqlSession");
+        }
+        if (SESSION_EXECUTOR == null) {
+            return warnUnreachable("field DefaultSqlSession.executor is not accessible");
+        }
+        Object executor = ReflectionUtils.getField(SESSION_EXECUTOR, session);
+        while (executor != null && Proxy.isProxyClass(executor.getClass())) {
+            if (!(Proxy.getInvocationHandler(executor) instanceof Plugin)) {
+                return warnUnreachable("executor is wrapped by " + Proxy.getInvocationHandler(executor).getClass().getName());
+            }
+            if (PLUGIN_TARGET == null) {
+                return warnUnreachable("field Plugin.target is not accessible");
+            }
+            executor = ReflectionUtils.getField(PLUGIN_TARGET, Proxy.getInvocationHandler(executor));
+        }
+        if (executor instanceof CachingExecutor && EXECUTOR_CACHE_MANAGER == null) {
+            return warnUnreachable("field CachingExecutor.tcm is not accessible");
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the cache manager of an executor, or {@code null} if it does not use the 2nd level caches.
+     */
+    private static TransactionalCacheManager managerOf(Object executor) {
+        if (!(executor instanceof CachingExecutor)) {
+            return null;
+        }
+        return (TransactionalCacheManager) ReflectionUtils.getField(EXECUTOR_CACHE_MANAGER, executor);
+    }
+
+    private static Object warnUnreachable(String reason) {
+        if (WARNED.compareAndSet(false, true)) {
+            LOGGER.warn(() -> "Cannot reach the 2nd level cache changes staged by MyBatis sessions (" + reason
+                    + "), sessions will publish them before the transaction commits. Checked against MyBatis 3.5.1.");
+        }
+        return null;
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        try {
+            Field field = ReflectionUtils.findField(type, name);
+            if (field != null) {
+                ReflectionUtils.makeAccessible(field);
+            }
+            return field;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.cache.Cache;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Buffers the writes of a Spring transaction and runs them as JDBC batches on the {@code BATCH}
+ * session of the transaction. It is bound to the transaction like a {@code SqlSessionHolder}, keyed
+ * by its {@code SqlSessionFactory}, and flushed before the {@code SqlSession} of the transaction is,
+ * which publishes the 2nd level cache evictions of the writes once the transaction commits.
+ * <p>
+ * A SELECT only flushes the buffer if it mentions a written table. The written tables are only
+ * told from plain {@code INSERT INTO}, {@code UPDATE}, {@code DELETE FROM} and {@code MERGE INTO}
+ * statements; any other write, like one starting with a {@code WITH} clause, makes every SELECT
+ * flush the buffer. Only static SQL is looked at: a write or SELECT with dynamic SQL, like
+ * {@code <if>} elements or an SQL provider, is taken to touch any table.
+ *
+ * @see SqlSessionTemplate#setWriteBehindStatements(java.util.Collection)
+ * @since 2.0.2
+ */
+final class WriteBehindBuffer extends TransactionSynchronizationAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private static final String IDENTIFIER = "(?:[\\w$]+|\"[^\"]+\"|`[^`]+`|\\[[^\\]]+\\])";
+
+    private static final String TABLE = "(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER + ")*)";
+
+    private static final String ALIAS = "(?:\\s+(?:as\\s+)?[\\w$]+)?";
+
+    private static final Pattern WRITTEN_TABLE = Pattern.compile("^\\s*(?:"
+            + "insert\\s+into\\s+" + TABLE + "\\s*(?:\\(|values\\b|select\\b|default\\b|set\\b)"
+            + "|update\\s+(?!only\\b)" + TABLE + ALIAS + "\\s+set\\b"
+            + "|delete\\s+from\\s+" + TABLE + ALIAS + "(?:\\s+where\\b|\\s*$)"
+            + "|merge\\s+into\\s+" + TABLE + ALIAS + "\\s+using\\b)", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern TABLE_IDENTIFIER = Pattern.compile(IDENTIFIER);
+
+    private final Key key;
+
+    private final PersistenceExceptionTranslator exceptionTranslator;
+
+    private final List<Write> writes = new ArrayList<>();
+
+    private final Set<Pattern> tables = new HashSet<>();
+
+    private final Set<Cache> caches = new HashSet<>();
+
+    private final Map<String, String> statementSql = new HashMap<>();
+
+    private boolean unknownTables;
+
+    private WriteBehindBuffer(SqlSessionFactory sessionFactory, PersistenceExceptionTranslator exceptionTranslator) {
+        this.key = new Key(sessionFactory);
+        this.exceptionTranslator = exceptionTranslator;
+    }
+
+    /**
+     * Returns the buffer bound to the current transaction, if any.
+     */
+    static WriteBehindBuffer current(SqlSessionFactory sessionFactory) {
+        return (WriteBehindBuffer) TransactionSynchronizationManager.getResource(new Key(sessionFactory));
+    }
+
+    /**
+     * Returns the buffer bound to the current transaction, binding a new one if needed.
+     */
+    static WriteBehindBuffer bind(SqlSessionFactory sessionFactory, PersistenceExceptionTranslator exceptionTranslator) {
+        WriteBehindBuffer buffer = current(sessionFactory);
+        if (buffer == null) {
+            buffer = new WriteBehindBuffer(sessionFactory, exceptionTranslator);
+            TransactionSynchronizationManager.bindResource(buffer.key, buffer);
+            TransactionSynchronizationManager.registerSynchronization(buffer);
+        }
+        return buffer;
+    }
+
+    boolean isEmpty() {
+        return this.writes.isEmpty();
+    }
+
+    /**
+     * Buffers a write, flushing the buffer once it holds {@code flushSize} writes.
+     */
+    void add(String statement, Object parameter, int flushSize) {
+        MappedStatement ms = this.key.sessionFactory.getConfiguration().getMappedStatement(statement);
+        if (!this.unknownTables) {
+            String table = writtenTable(sqlOf(ms));
+            if (table != null) {
+                this.tables.add(Pattern.compile("(?<![\\w$])" + Pattern.quote(table) + "(?![\\w$])"));
+            } else {
+                // rather flush before every SELECT than let one read stale rows
+                this.unknownTables = true;
+            }
+        }
+        if (ms.getCache() != null && ms.isFlushCacheRequired()) {
+            this.caches.add(ms.getCache());
+        }
+        this.writes.add(new Write(statement, parameter));
+        if (this.writes.size() >= flushSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Flushes the buffer if the given SELECT statement may read a table written by the buffered writes.
+     */
+    void flushIfRead(MappedStatement ms) {
+        if (this.writes.isEmpty()) {
+            return;
+        }
+        String sql = this.unknownTables ? "" : sqlOf(ms);
+        boolean read = sql.isEmpty();
+        for (Pattern table : this.tables) {
+            if (read) {
+                break;
+            }
+            read = table.matcher(sql).find();
+        }
+        if (read) {
+            flush();
+        }
+    }
+
+    /**
+     * Runs the buffered writes, in order, as JDBC batches. Also called by
+     * {@code TransactionStatus#flush()}.
+     */
+    @Override
+    public void flush() {
+        if (this.writes.isEmpty()) {
+            return;
+        }
+        LOGGER.debug(() -> "Flushing " + this.writes.size() + " buffered writes");
+        List<Write> writes = new ArrayList<>(this.writes);
+        this.writes.clear();
+        // the 2nd level cache evictions of the writes are staged by the BATCH session of the
+        // transaction and published by its SqlSessionSynchronization once the transaction commits.
+        // Switching the transaction back to its other session clears the results it read before.
+        List<Cache> caches = new ArrayList<>(this.caches);
+        this.caches.clear();
+        SqlSessionHolderSlot slot = SqlSessionHolderSlot.forFactory(this.key.sessionFactory);
+        SqlSession batchSession = SqlSessionUtils.getSqlSession(slot, this.key.sessionFactory, ExecutorType.BATCH,
+                this.exceptionTranslator);
+        try {
+            for (Write write : writes) {
+                batchSession.update(write.statement, write.parameter);
+            }
+            batchSession.flushStatements();
+        } catch (PersistenceException e) {
+            if (this.exceptionTranslator != null) {
+                RuntimeException translated = this.exceptionTranslator.translateExceptionIfPossible(e);
+                if (translated != null) {
+                    throw translated;
+                }
+            }
+            throw e;
+        } finally {
+            SqlSessionUtils.closeSqlSession(batchSession, slot.get(), slot);
+        }
+        SqlSessionHolder holder = slot.get();
+        if (holder != null && !caches.isEmpty()) {
+            holder.stageEvictions(batchSession, caches);
+        }
+    }
+
+    /**
+     * Returns the lower-cased unqualified name of the table written by a statement, or {@code null}
+     * if it cannot be told from its SQL.
+     */
+    private static String writtenTable(String sql) {
+        Matcher matcher = WRITTEN_TABLE.matcher(sql);
+        if (!matcher.find()) {
+            return null;
+        }
+        String table = null;
+        for (int group = 1; table == null; group++) {
+            table = matcher.group(group);
+        }
+        Matcher identifiers = TABLE_IDENTIFIER.matcher(table);
+        String name = null;
+        while (identifiers.find()) {
+            name = identifiers.group();
+        }
+        return name.replaceAll("^[\"`\\[]|[\"`\\]]$", "").toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the lower-cased SQL of a statement, or an empty string if it depends on the parameter.
+     */
+    private String sqlOf(MappedStatement ms) {
+        return this.statementSql.computeIfAbsent(ms.getId(), id -> {
+            SqlSource sqlSource = ms.getSqlSource();
+            if (!(sqlSource instanceof StaticSqlSource || sqlSource instanceof RawSqlSource)) {
+                // the tables of dynamic SQL, like a join in an <if>, may not show without the parameter
+                return "";
+            }
+            try {
+                return ms.getBoundSql(null).getSql().toLowerCase(Locale.ENGLISH);
+            } catch (RuntimeException e) {
+                return "";
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getOrder() {
+        // order right before the SqlSessionSynchronization
+        return DataSourceUtils.CONNECTION_SYNCHRONIZATION_ORDER - 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void suspend() {
+        TransactionSynchronizationManager.unbindResource(this.key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resume() {
+        TransactionSynchronizationManager.bindResource(this.key, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeCommit(boolean readOnly) {
+        flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(this.key);
+        this.writes.clear();
+        this.caches.clear();
+    }
+
+    private static final class Write {
+
+        private final String statement;
+
+        private final Object parameter;
+
+        Write(String statement, Object parameter) {
+            this.statement = statement;
+            this.parameter = parameter;
+        }
+    }
+
+    private static final class Key {
+
+        private final SqlSessionFactory sessionFactory;
+
+        Key(SqlSessionFactory sessionFactory) {
+            this.sessionFactory = sessionFactory;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).sessionFactory == this.sessionFactory;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.sessionFactory);
+        }
+    }
+
+}
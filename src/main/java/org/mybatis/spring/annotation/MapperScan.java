@@ -163,6 +163,15 @@ public @interface MapperScan {
      */
     String sqlSessionFactoryRef() default "";
 
+    /**
+     * Specifies which {@code AsyncSqlSessionTemplate} runs the mapper methods returning a
+     * {@code CompletableFuture}. It is required if a scanned mapper declares any.
+     *
+     * @return the bean name of {@code AsyncSqlSessionTemplate}
+     * @since 2.0.2
+     */
+    String asyncSqlSessionTemplateRef() default "";
+
     /**
      * Specifies a custom MapperFactoryBean to return a mybatis proxy as spring bean.
      *
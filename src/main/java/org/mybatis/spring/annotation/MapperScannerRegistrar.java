@@ -115,6 +115,7 @@ public class MapperScannerRegistrar implements ImportBeanDefinitionRegistrar, Re
 
         scanner.setSqlSessionTemplateBeanName(annoAttrs.getString("sqlSessionTemplateRef"));
         scanner.setSqlSessionFactoryBeanName(annoAttrs.getString("sqlSessionFactoryRef"));
+        scanner.setAsyncSqlSessionTemplateBeanName(annoAttrs.getString("asyncSqlSessionTemplateRef"));
 
         /*
         * 设置扫描路径
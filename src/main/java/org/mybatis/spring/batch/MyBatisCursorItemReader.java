@@ -18,6 +18,8 @@ package org.mybatis.spring.batch;
 import static org.springframework.util.Assert.notNull;
 import static org.springframework.util.ClassUtils.getShortName;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -26,6 +28,9 @@ import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionUtils;
+import org.mybatis.spring.leak.OpenResourceType;
+import org.mybatis.spring.leak.ResourceLeakTracker;
 import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
 import org.springframework.beans.factory.InitializingBean;
 
@@ -67,19 +72,39 @@ public class MyBatisCursorItemReader<T> extends AbstractItemCountingItemStreamIt
         sqlSession = sqlSessionFactory.openSession(ExecutorType.SIMPLE);
         cursor = sqlSession.selectCursor(queryId, parameters);
         cursorIterator = cursor.iterator();
+
+        ResourceLeakTracker leakTracker = SqlSessionUtils.getResourceLeakTracker(sqlSessionFactory);
+        if (leakTracker != null) {
+            SqlSession session = sqlSession;
+            Cursor<T> openCursor = cursor;
+            leakTracker.track(this, OpenResourceType.CURSOR, queryId, () -> close(openCursor, session));
+        }
     }
 
     @Override
     protected void doClose() throws Exception {
-        if (cursor != null) {
-            cursor.close();
-        }
-        if (sqlSession != null) {
-            sqlSession.close();
+        ResourceLeakTracker leakTracker = SqlSessionUtils.getResourceLeakTracker(sqlSessionFactory);
+        if (leakTracker != null) {
+            leakTracker.untrack(this);
         }
+        close(cursor, sqlSession);
         cursorIterator = null;
     }
 
+    private static void close(Cursor<?> cursor, SqlSession sqlSession) {
+        try {
+            if (cursor != null) {
+                cursor.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (sqlSession != null) {
+                sqlSession.close();
+            }
+        }
+    }
+
     /**
      * Check mandatory properties.
      *
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.bulkhead;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.PatternMatchUtils;
+
+/**
+ * Limits the concurrent calls a {@code SqlSessionTemplate} makes to its {@code SqlSessionFactory},
+ * so reporting queries saturating the connection pool do not make interactive calls queue behind
+ * them for a connection. Calls are split in named {@link BulkheadLane}s, each with its own permits
+ * and queue timeout. The lane of a call is, in this order:
+ * <ul>
+ * <li>the lane bound to the current thread by {@link BulkheadLaneHolder}</li>
+ * <li>the lane of the first statement pattern matching the statement id, see
+ * {@link #setStatementLanes(Map)}</li>
+ * <li>the default lane, if any; calls of no lane are not limited</li>
+ * </ul>
+ * Permits are taken before a call gets its connection and released once it gives it back: calls
+ * joining a Spring transaction or a unit of work, which already hold a connection, are not limited,
+ * and a unit of work takes a single permit for all its calls. So does a scope with transaction
+ * synchronization but no transaction, like {@code SUPPORTS}: its first call takes a permit, in its
+ * lane, that is released when the scope completes.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="bulkhead" class="org.mybatis.spring.bulkhead.Bulkhead">
+ *   <property name="lanes">
+ *     <list>
+ *       <bean class="org.mybatis.spring.bulkhead.BulkheadLane">
+ *         <constructor-arg value="interactive" />
+ *         <constructor-arg value="40" />
+ *         <property name="queueTimeoutMillis" value="200" />
+ *       </bean>
+ *       <bean class="org.mybatis.spring.bulkhead.BulkheadLane">
+ *         <constructor-arg value="reporting" />
+ *         <constructor-arg value="8" />
+ *         <property name="queueTimeoutMillis" value="30000" />
+ *         <property name="targetLatencyMillis" value="2000" />
+ *       </bean>
+ *     </list>
+ *   </property>
+ *   <property name="defaultLane" value="interactive" />
+ *   <property name="statementLanes">
+ *     <map>
+ *       <entry key="com.example.report.*" value="reporting" />
+ *     </map>
+ *   </property>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see org.mybatis.spring.SqlSessionTemplate#setBulkhead(Bulkhead)
+ * @since 2.0.2
+ */
+public class Bulkhead {
+
+    private Map<String, BulkheadLane> lanes = Collections.emptyMap();
+
+    private Map<String, BulkheadLane> statementLanes = Collections.emptyMap();
+
+    private BulkheadLane defaultLane;
+
+    // the lane resolved for each statement id, a statement may have none
+    private final Map<String, Object> laneCache = new ConcurrentHashMap<>();
+
+    public List<BulkheadLane> getLanes() {
+        return new ArrayList<>(this.lanes.values());
+    }
+
+    public void setLanes(List<BulkheadLane> lanes) {
+        notNull(lanes, "Property 'lanes' is required");
+        Map<String, BulkheadLane> byName = new LinkedHashMap<>();
+        for (BulkheadLane lane : lanes) {
+            isTrue(byName.put(lane.getName(), lane) == null, () -> "Duplicate bulkhead lane '" + lane.getName() + "'");
+        }
+        this.lanes = byName;
+        this.laneCache.clear();
+    }
+
+    /**
+     * Sets the lane of the calls that neither have a lane bound to their thread nor a statement
+     * matching a pattern. By default such calls are not limited.
+     *
+     * @param defaultLane the name of the default lane
+     */
+    public void setDefaultLane(String defaultLane) {
+        this.defaultLane = defaultLane == null ? null : laneNamed(defaultLane);
+        this.laneCache.clear();
+    }
+
+    /**
+     * Assigns lanes to statements by id pattern, as supported by Spring {@code PatternMatchUtils}
+     * ({@code xxx*}, {@code *xxx}, {@code *xxx*} and {@code xxx*yyy}). Patterns are tried in the
+     * iteration order of the map.
+     *
+     * @param statementLanes the lane names keyed by statement id pattern
+     */
+    public void setStatementLanes(Map<String, String> statementLanes) {
+        notNull(statementLanes, "Property 'statementLanes' is required");
+        Map<String, BulkheadLane> byPattern = new LinkedHashMap<>();
+        statementLanes.forEach((pattern, lane) -> byPattern.put(pattern, laneNamed(lane)));
+        this.statementLanes = byPattern;
+        this.laneCache.clear();
+    }
+
+    /**
+     * Waits for a permit of the lane of the given call.
+     *
+     * @param statement the statement id of the call, or {@code null} for a unit of work
+     * @return the permit to release once the call has given its connection back, or {@code null}
+     *         if the call is not limited
+     * @throws BulkheadFullException if no permit was released in time
+     */
+    public Permit acquire(String statement) {
+        BulkheadLane lane = laneOf(statement);
+        if (lane == null) {
+            return null;
+        }
+        lane.acquire();
+        return new Permit(lane);
+    }
+
+    private BulkheadLane laneOf(String statement) {
+        String bound = BulkheadLaneHolder.getLane();
+        if (bound != null) {
+            return laneNamed(bound);
+        } else if (statement == null) {
+            return this.defaultLane;
+        }
+        Object lane = this.laneCache.computeIfAbsent(statement, id -> {
+            for (Map.Entry<String, BulkheadLane> entry : this.statementLanes.entrySet()) {
+                if (PatternMatchUtils.simpleMatch(entry.getKey(), id)) {
+                    return entry.getValue();
+                }
+            }
+            return this.defaultLane == null ? Boolean.FALSE : this.defaultLane;
+        });
+        return lane instanceof BulkheadLane ? (BulkheadLane) lane : null;
+    }
+
+    private BulkheadLane laneNamed(String name) {
+        BulkheadLane lane = this.lanes.get(name);
+        isTrue(lane != null, () -> "Unknown bulkhead lane '" + name + "'");
+        return lane;
+    }
+
+    /**
+     * @return the current state and counters of every lane
+     */
+    public List<BulkheadLaneSnapshot> getSnapshots() {
+        List<BulkheadLaneSnapshot> snapshots = new ArrayList<>(this.lanes.size());
+        this.lanes.values().forEach(lane -> snapshots.add(lane.getSnapshot()));
+        return snapshots;
+    }
+
+    /**
+     * A permit of a lane, held by a call until it gives its connection back.
+     */
+    public static final class Permit {
+
+        private final BulkheadLane lane;
+
+        private final long acquiredAt = System.nanoTime();
+
+        private boolean released;
+
+        Permit(BulkheadLane lane) {
+            this.lane = lane;
+        }
+
+        /**
+         * Releases the permit. It can be called more than once.
+         */
+        public synchronized void release() {
+            if (!this.released) {
+                this.released = true;
+                this.lane.release(System.nanoTime() - this.acquiredAt);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.bulkhead;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Thrown when a call could not get a permit of its {@link BulkheadLane} within the queue timeout
+ * of the lane. The call did not borrow a connection.
+ *
+ * @since 2.0.2
+ */
+@SuppressWarnings("serial")
+public class BulkheadFullException extends TransientDataAccessResourceException {
+
+    private final String lane;
+
+    /**
+     * Constructor for BulkheadFullException.
+     *
+     * @param msg the detail message
+     * @param lane the name of the lane that rejected the call
+     */
+    public BulkheadFullException(String msg, String lane) {
+        super(msg);
+        this.lane = lane;
+    }
+
+    public String getLane() {
+        return this.lane;
+    }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.bulkhead;
+
+import static org.springframework.util.Assert.hasText;
+import static org.springframework.util.Assert.isTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.mybatis.spring.statement.Deadline;
+import org.mybatis.spring.statement.DeadlineHolder;
+
+/**
+ * A named share of the concurrent calls of a {@link Bulkhead}: at most {@code maxConcurrent} calls
+ * of the lane run at once, the others wait for a permit up to the queue timeout of the lane, or
+ * the current {@code Deadline} if sooner, and are then rejected with a
+ * {@link BulkheadFullException}.
+ * <p>
+ * When a target latency is set the limit adapts to the observed latency: every {@code limit}
+ * calls, it is cut by a quarter if more than a tenth of them were slower than the target, and
+ * raised by one, up to {@code maxConcurrent}, if none were. It never goes below
+ * {@code minConcurrent}.
+ *
+ * @since 2.0.2
+ */
+public class BulkheadLane {
+
+    private final String name;
+
+    private int maxConcurrent;
+
+    private int minConcurrent = 1;
+
+    private long queueTimeoutNanos;
+
+    private long targetLatencyNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = this.lock.newCondition();
+
+    // guarded by the lock
+    private int limit;
+
+    private int inFlight;
+
+    private int queueDepth;
+
+    private int peakQueueDepth;
+
+    private int windowCalls;
+
+    private int windowSlowCalls;
+
+    private final LongAdder acquired = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * Constructs a lane without queue timeout: calls are rejected when all its permits are taken.
+     *
+     * @param name the name of the lane
+     * @param maxConcurrent the maximum number of concurrent calls of the lane
+     */
+    public BulkheadLane(String name, int maxConcurrent) {
+        hasText(name, "Property 'name' is required");
+        this.name = name;
+        setMaxConcurrent(maxConcurrent);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    /**
+     * Sets the maximum number of concurrent calls of the lane, which is also its initial limit.
+     *
+     * @param maxConcurrent the maximum number of concurrent calls
+     */
+    public void setMaxConcurrent(int maxConcurrent) {
+        isTrue(maxConcurrent > 0, "Property 'maxConcurrent' must be greater than 0");
+        this.lock.lock();
+        try {
+            this.maxConcurrent = maxConcurrent;
+            this.limit = maxConcurrent;
+            this.released.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the lowest limit an adaptive lane can reach. Defaults to 1.
+     *
+     * @param minConcurrent the minimum number of concurrent calls
+     */
+    public void setMinConcurrent(int minConcurrent) {
+        isTrue(minConcurrent > 0, "Property 'minConcurrent' must be greater than 0");
+        this.minConcurrent = minConcurrent;
+    }
+
+    /**
+     * Sets how long a call waits for a permit before being rejected. Defaults to 0, no wait.
+     *
+     * @param queueTimeoutMillis the queue timeout in milliseconds
+     */
+    public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+        isTrue(queueTimeoutMillis >= 0, "Property 'queueTimeoutMillis' must be positive");
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+    }
+
+    /**
+     * Makes the limit of the lane adapt to the observed latency of its calls. Defaults to 0, a
+     * fixed limit.
+     *
+     * @param targetLatencyMillis the latency above which calls are considered slow, in milliseconds
+     */
+    public void setTargetLatencyMillis(long targetLatencyMillis) {
+        isTrue(targetLatencyMillis >= 0, "Property 'targetLatencyMillis' must be positive");
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+    }
+
+    /**
+     * Waits for a permit of this lane.
+     *
+     * @throws BulkheadFullException if no permit was released in time
+     */
+    void acquire() {
+        long start = System.nanoTime();
+        long timeout = this.queueTimeoutNanos;
+        Deadline deadline = DeadlineHolder.currentDeadline();
+        if (deadline != null) {
+            timeout = Math.min(timeout, deadline.remainingNanos());
+        }
+        this.lock.lock();
+        try {
+            if (this.inFlight >= this.limit) {
+                if (timeout > 0) {
+                    await(timeout);
+                    this.waitNanos.add(System.nanoTime() - start);
+                }
+                if (this.inFlight >= this.limit) {
+                    this.rejected.increment();
+                    throw new BulkheadFullException("Bulkhead lane '" + this.name + "' is full, " + this.inFlight
+                            + " calls in flight and " + this.queueDepth + " waiting", this.name);
+                }
+            }
+            this.inFlight++;
+            this.acquired.increment();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void await(long timeoutNanos) {
+        this.queueDepth++;
+        this.peakQueueDepth = Math.max(this.peakQueueDepth, this.queueDepth);
+        try {
+            long timeout = timeoutNanos;
+            while (this.inFlight >= this.limit && timeout > 0) {
+                timeout = this.released.awaitNanos(timeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.queueDepth--;
+        }
+    }
+
+    /**
+     * Releases a permit taken by a call that lasted the given time.
+     */
+    void release(long elapsedNanos) {
+        this.lock.lock();
+        try {
+            this.inFlight--;
+            if (this.targetLatencyNanos > 0) {
+                adapt(elapsedNanos > this.targetLatencyNanos);
+            }
+            this.released.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void adapt(boolean slow) {
+        this.windowCalls++;
+        if (slow) {
+            this.windowSlowCalls++;
+        }
+        if (this.windowCalls < this.limit) {
+            return;
+        }
+        int previous = this.limit;
+        if (this.windowSlowCalls * 10 > this.windowCalls) {
+            this.limit = Math.max(this.minConcurrent, this.limit - Math.max(1, this.limit / 4));
+        } else if (this.windowSlowCalls == 0) {
+            this.limit = Math.min(this.maxConcurrent, this.limit + 1);
+        }
+        this.windowCalls = 0;
+        this.windowSlowCalls = 0;
+        if (this.limit > previous) {
+            this.released.signalAll();
+        }
+    }
+
+    /**
+     * @return the current state and counters of this lane
+     */
+    public BulkheadLaneSnapshot getSnapshot() {
+        this.lock.lock();
+        try {
+            return new BulkheadLaneSnapshot(this.name, this.limit, this.inFlight, this.queueDepth, this.peakQueueDepth,
+                    this.acquired.sum(), this.rejected.sum(), this.waitNanos.sum());
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.bulkhead;
+
+import java.util.function.Supplier;
+
+/**
+ * Binds the name of a {@link BulkheadLane} to the current thread, so every call it makes, including
+ * the ones made through mapper interfaces, runs in that lane whatever its statement.
+ *
+ * <pre class="code">
+ * {@code
+ * Report report = BulkheadLaneHolder.callWith("reporting", () -> reportService.build(criteria));
+ * }
+ * </pre>
+ *
+ * @see Bulkhead
+ * @since 2.0.2
+ */
+public final class BulkheadLaneHolder {
+
+    private static final ThreadLocal<String> LANE = new ThreadLocal<>();
+
+    /**
+     * This class can't be instantiated, exposes static utility methods only.
+     */
+    private BulkheadLaneHolder() {
+        // do nothing
+    }
+
+    /**
+     * @return the name of the lane bound to the current thread, or {@code null} if none
+     */
+    public static String getLane() {
+        return LANE.get();
+    }
+
+    /**
+     * Binds the given lane to the current thread, or resets it if {@code null}.
+     *
+     * @param lane the name of the lane to bind
+     */
+    public static void setLane(String lane) {
+        if (lane == null) {
+            LANE.remove();
+        } else {
+            LANE.set(lane);
+        }
+    }
+
+    public static void resetLane() {
+        LANE.remove();
+    }
+
+    /**
+     * Runs the given call with the given lane bound to the current thread and then restores the
+     * previously bound one.
+     *
+     * @param lane the name of the lane to bind during the call
+     * @param call the call to run
+     * @param <T> the result type of the call
+     * @return the result of the call
+     */
+    public static <T> T callWith(String lane, Supplier<T> call) {
+        String previous = LANE.get();
+        setLane(lane);
+        try {
+            return call.get();
+        } finally {
+            setLane(previous);
+        }
+    }
+
+}
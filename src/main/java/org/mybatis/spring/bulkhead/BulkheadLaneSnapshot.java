@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.bulkhead;
+
+/**
+ * Immutable view of the state and counters of a {@link BulkheadLane}.
+ *
+ * @since 2.0.2
+ */
+public final class BulkheadLaneSnapshot {
+
+    private final String name;
+
+    private final int limit;
+
+    private final int inFlight;
+
+    private final int queueDepth;
+
+    private final int peakQueueDepth;
+
+    private final long acquired;
+
+    private final long rejected;
+
+    private final long waitNanos;
+
+    BulkheadLaneSnapshot(String name, int limit, int inFlight, int queueDepth, int peakQueueDepth,
+                         long acquired, long rejected, long waitNanos) {
+        this.name = name;
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.queueDepth = queueDepth;
+        this.peakQueueDepth = peakQueueDepth;
+        this.acquired = acquired;
+        this.rejected = rejected;
+        this.waitNanos = waitNanos;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the current number of permits, lower than the maximum when adaptively reduced
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getInFlight() {
+        return this.inFlight;
+    }
+
+    /**
+     * @return the number of calls waiting for a permit
+     */
+    public int getQueueDepth() {
+        return this.queueDepth;
+    }
+
+    public int getPeakQueueDepth() {
+        return this.peakQueueDepth;
+    }
+
+    public long getAcquired() {
+        return this.acquired;
+    }
+
+    public long getRejected() {
+        return this.rejected;
+    }
+
+    /**
+     * @return the total time calls waited for a permit in nanoseconds, rejected calls included
+     */
+    public long getWaitNanos() {
+        return this.waitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkheadLaneSnapshot[name=" + this.name + ", limit=" + this.limit + ", inFlight=" + this.inFlight
+                + ", queueDepth=" + this.queueDepth + ", peakQueueDepth=" + this.peakQueueDepth
+                + ", acquired=" + this.acquired + ", rejected=" + this.rejected + "]";
+    }
+
+}
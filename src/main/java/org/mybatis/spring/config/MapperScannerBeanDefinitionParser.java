@@ -49,6 +49,7 @@ public class MapperScannerBeanDefinitionParser implements BeanDefinitionParser {
     private static final String ATTRIBUTE_NAME_GENERATOR = "name-generator";
     private static final String ATTRIBUTE_TEMPLATE_REF = "template-ref";
     private static final String ATTRIBUTE_FACTORY_REF = "factory-ref";
+    private static final String ATTRIBUTE_ASYNC_TEMPLATE_REF = "async-template-ref";
     private static final String ATTRIBUTE_MAPPER_FACTORY_BEAN_CLASS = "mapper-factory-bean-class";
 
     /**
@@ -92,6 +93,8 @@ public class MapperScannerBeanDefinitionParser implements BeanDefinitionParser {
         scanner.setSqlSessionTemplateBeanName(sqlSessionTemplateBeanName);
         String sqlSessionFactoryBeanName = element.getAttribute(ATTRIBUTE_FACTORY_REF);
         scanner.setSqlSessionFactoryBeanName(sqlSessionFactoryBeanName);
+        String asyncSqlSessionTemplateBeanName = element.getAttribute(ATTRIBUTE_ASYNC_TEMPLATE_REF);
+        scanner.setAsyncSqlSessionTemplateBeanName(asyncSqlSessionTemplateBeanName);
         scanner.registerFilters();
         String basePackage = element.getAttribute(ATTRIBUTE_BASE_PACKAGE);
         scanner.scan(StringUtils.tokenizeToStringArray(basePackage, ConfigurableApplicationContext.CONFIG_LOCATION_DELIMITERS));
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.leak;
+
+/**
+ * Immutable view of a resource tracked by a {@link ResourceLeakTracker}.
+ *
+ * @since 2.0.2
+ */
+public final class OpenResource {
+
+    private final OpenResourceType type;
+
+    private final String description;
+
+    private final String threadName;
+
+    private final long openedAt;
+
+    private final long ageMillis;
+
+    private final StackTraceElement[] allocationStack;
+
+    OpenResource(OpenResourceType type, String description, String threadName, long openedAt, long ageMillis,
+                 StackTraceElement[] allocationStack) {
+        this.type = type;
+        this.description = description;
+        this.threadName = threadName;
+        this.openedAt = openedAt;
+        this.ageMillis = ageMillis;
+        this.allocationStack = allocationStack;
+    }
+
+    public OpenResourceType getType() {
+        return this.type;
+    }
+
+    /**
+     * @return the statement id of a cursor, or the description of a session
+     */
+    public String getDescription() {
+        return this.description;
+    }
+
+    /**
+     * @return the name of the thread that opened the resource
+     */
+    public String getThreadName() {
+        return this.threadName;
+    }
+
+    /**
+     * @return the time the resource was opened at, in milliseconds since the epoch
+     */
+    public long getOpenedAt() {
+        return this.openedAt;
+    }
+
+    public long getAgeMillis() {
+        return this.ageMillis;
+    }
+
+    /**
+     * @return the stack of the thread when it opened the resource, or {@code null} if it was not sampled
+     */
+    public StackTraceElement[] getAllocationStack() {
+        return this.allocationStack == null ? null : this.allocationStack.clone();
+    }
+
+    @Override
+    public String toString() {
+        return this.type + " [" + this.description + "] opened by thread '" + this.threadName + "' "
+                + this.ageMillis + " ms ago";
+    }
+
+}
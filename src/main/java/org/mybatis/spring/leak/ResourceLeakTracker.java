@@ -0,0 +1,299 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.leak;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+
+/**
+ * Tracks the {@code SqlSession}s and cursors that are open so the ones that are never closed are
+ * found before they exhaust the connection pool. It records when each resource was opened, by which
+ * thread, and for a sample of them the stack of the thread, which is the costly part. It warns
+ * about the resources open for longer than {@code warnAfterMillis} and can force close the ones
+ * open for longer than {@code forceCloseAfterMillis}.
+ * <p>
+ * Tracking a resource costs a map insertion and removal, so the tracker can be left on in
+ * production with the default stack sampling of one resource in a hundred. Ages are checked when
+ * resources are opened, at most once per {@code checkIntervalMillis}. Call
+ * {@link #checkOpenResources()} from a scheduler to check them while no resource is opened.
+ * <p>
+ * A tracker is set on a {@code SqlSessionFactory}: it then tracks the sessions opened through
+ * {@code SqlSessionUtils}, so by {@code SqlSessionTemplate}, the cursors returned by
+ * {@code SqlSessionTemplate} outside of a transaction and the cursors of
+ * {@code MyBatisCursorItemReader}.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionFactory" class="org.mybatis.spring.SqlSessionFactoryBean">
+ *   <property name="dataSource" ref="dataSource" />
+ *   <property name="resourceLeakTracker">
+ *     <bean class="org.mybatis.spring.leak.ResourceLeakTracker">
+ *       <property name="warnAfterMillis" value="60000" />
+ *     </bean>
+ *   </property>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see org.mybatis.spring.SqlSessionFactoryBean#setResourceLeakTracker(ResourceLeakTracker)
+ * @see org.mybatis.spring.SqlSessionUtils#setResourceLeakTracker(org.apache.ibatis.session.SqlSessionFactory, ResourceLeakTracker)
+ * @since 2.0.2
+ */
+public class ResourceLeakTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceLeakTracker.class);
+
+    private final Map<Object, TrackedResource> openResources = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextCheckNanos = new AtomicLong(System.nanoTime());
+
+    private final LongAdder warned = new LongAdder();
+
+    private final LongAdder forceClosed = new LongAdder();
+
+    private int stackSamplingInterval = 100;
+
+    private long warnAfterMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private long forceCloseAfterMillis;
+
+    private long checkIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+
+    public int getStackSamplingInterval() {
+        return this.stackSamplingInterval;
+    }
+
+    /**
+     * Sets how often the stack of the opening thread is recorded: for one resource in
+     * {@code stackSamplingInterval} on average, {@code 1} records it for all of them and {@code 0}
+     * never. Defaults to 100.
+     *
+     * @param stackSamplingInterval the average number of resources per recorded stack
+     */
+    public void setStackSamplingInterval(int stackSamplingInterval) {
+        isTrue(stackSamplingInterval >= 0, "Property 'stackSamplingInterval' must not be negative");
+        this.stackSamplingInterval = stackSamplingInterval;
+    }
+
+    public long getWarnAfterMillis() {
+        return this.warnAfterMillis;
+    }
+
+    /**
+     * Sets the age past which an open resource is logged as a warning, once. Defaults to one minute,
+     * {@code 0} disables the warnings.
+     *
+     * @param warnAfterMillis the age in milliseconds
+     */
+    public void setWarnAfterMillis(long warnAfterMillis) {
+        isTrue(warnAfterMillis >= 0, "Property 'warnAfterMillis' must not be negative");
+        this.warnAfterMillis = warnAfterMillis;
+    }
+
+    public long getForceCloseAfterMillis() {
+        return this.forceCloseAfterMillis;
+    }
+
+    /**
+     * Sets the age past which an open resource is closed by the tracker, releasing its connection.
+     * The thread still using it, if any, then fails on its next call. Defaults to {@code 0}, which
+     * disables it.
+     *
+     * @param forceCloseAfterMillis the age in milliseconds
+     */
+    public void setForceCloseAfterMillis(long forceCloseAfterMillis) {
+        isTrue(forceCloseAfterMillis >= 0, "Property 'forceCloseAfterMillis' must not be negative");
+        this.forceCloseAfterMillis = forceCloseAfterMillis;
+    }
+
+    public long getCheckIntervalMillis() {
+        return this.checkIntervalMillis;
+    }
+
+    /**
+     * Sets the minimum time between two checks of the ages made when a resource is opened. Defaults
+     * to one second.
+     *
+     * @param checkIntervalMillis the interval in milliseconds
+     */
+    public void setCheckIntervalMillis(long checkIntervalMillis) {
+        isTrue(checkIntervalMillis >= 0, "Property 'checkIntervalMillis' must not be negative");
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    /**
+     * Starts tracking an open resource. Resources are compared with {@code equals}, which the
+     * sessions and cursors of MyBatis do not override.
+     *
+     * @param resource the open resource
+     * @param type the type of the resource
+     * @param description the statement id of a cursor, or a description of the resource
+     * @param forceClose closes the resource when it is too old, {@code null} if it cannot be closed
+     */
+    public void track(Object resource, OpenResourceType type, String description, Runnable forceClose) {
+        notNull(resource, "Parameter 'resource' must be not null");
+        long now = System.nanoTime();
+        int samplingInterval = this.stackSamplingInterval;
+        Throwable allocation = samplingInterval > 0
+                && (samplingInterval == 1 || ThreadLocalRandom.current().nextInt(samplingInterval) == 0)
+                ? new Throwable() : null;
+        this.openResources.put(resource,
+                new TrackedResource(type, description, Thread.currentThread().getName(), now, allocation, forceClose));
+        checkIfDue(now);
+    }
+
+    /**
+     * Stops tracking a resource once it is closed. It does nothing if the resource is not tracked.
+     *
+     * @param resource the closed resource
+     */
+    public void untrack(Object resource) {
+        if (resource != null) {
+            this.openResources.remove(resource);
+        }
+    }
+
+    /**
+     * Returns the resources that are open, oldest first.
+     *
+     * @return a snapshot of the open resources
+     */
+    public List<OpenResource> getOpenResources() {
+        long now = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        List<OpenResource> resources = new ArrayList<>(this.openResources.size());
+        for (TrackedResource tracked : this.openResources.values()) {
+            long ageMillis = TimeUnit.NANOSECONDS.toMillis(now - tracked.openedAtNanos);
+            resources.add(new OpenResource(tracked.type, tracked.description, tracked.threadName, nowMillis - ageMillis,
+                    ageMillis, tracked.allocation == null ? null : tracked.allocation.getStackTrace()));
+        }
+        resources.sort(Comparator.comparingLong(OpenResource::getAgeMillis).reversed());
+        return resources;
+    }
+
+    public int getOpenCount() {
+        return this.openResources.size();
+    }
+
+    /**
+     * @return the number of resources logged because they were open for too long
+     */
+    public long getWarnedCount() {
+        return this.warned.sum();
+    }
+
+    /**
+     * @return the number of resources closed by the tracker
+     */
+    public long getForceClosedCount() {
+        return this.forceClosed.sum();
+    }
+
+    /**
+     * Warns about the resources open for longer than {@code warnAfterMillis} and closes the ones
+     * open for longer than {@code forceCloseAfterMillis}.
+     */
+    public void checkOpenResources() {
+        long now = System.nanoTime();
+        long warnAfterNanos = TimeUnit.MILLISECONDS.toNanos(this.warnAfterMillis);
+        long forceCloseAfterNanos = TimeUnit.MILLISECONDS.toNanos(this.forceCloseAfterMillis);
+        for (Map.Entry<Object, TrackedResource> entry : this.openResources.entrySet()) {
+            TrackedResource tracked = entry.getValue();
+            long age = now - tracked.openedAtNanos;
+            if (forceCloseAfterNanos > 0 && age >= forceCloseAfterNanos && tracked.forceClose != null) {
+                if (this.openResources.remove(entry.getKey(), tracked)) {
+                    this.forceClosed.increment();
+                    LOGGER.warn(() -> describe(tracked, age) + ", closing it. Close the sessions and cursors you open.");
+                    try {
+                        tracked.forceClose.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.warn(() -> "Could not close " + tracked.type + " [" + tracked.description + "]: " + e);
+                    }
+                }
+            } else if (warnAfterNanos > 0 && age >= warnAfterNanos && !tracked.warned) {
+                tracked.warned = true;
+                this.warned.increment();
+                LOGGER.warn(() -> describe(tracked, age) + ". Close the sessions and cursors you open.");
+            }
+        }
+    }
+
+    private void checkIfDue(long now) {
+        long next = this.nextCheckNanos.get();
+        if (now - next >= 0
+                && this.nextCheckNanos.compareAndSet(next, now + TimeUnit.MILLISECONDS.toNanos(this.checkIntervalMillis))) {
+            checkOpenResources();
+        }
+    }
+
+    private static String describe(TrackedResource tracked, long ageNanos) {
+        StringBuilder message = new StringBuilder()
+                .append(tracked.type).append(" [").append(tracked.description).append("] opened by thread '")
+                .append(tracked.threadName).append("' is open for ").append(TimeUnit.NANOSECONDS.toMillis(ageNanos))
+                .append(" ms");
+        if (tracked.allocation != null) {
+            message.append(", opened at");
+            for (StackTraceElement element : tracked.allocation.getStackTrace()) {
+                message.append(System.lineSeparator()).append("\tat ").append(element);
+            }
+        }
+        return message.toString();
+    }
+
+    /**
+     * A tracked resource, the stack trace is only filled if it is sampled.
+     */
+    private static final class TrackedResource {
+
+        private final OpenResourceType type;
+
+        private final String description;
+
+        private final String threadName;
+
+        private final long openedAtNanos;
+
+        private final Throwable allocation;
+
+        private final Runnable forceClose;
+
+        private volatile boolean warned;
+
+        TrackedResource(OpenResourceType type, String description, String threadName, long openedAtNanos,
+                        Throwable allocation, Runnable forceClose) {
+            this.type = type;
+            this.description = description;
+            this.threadName = threadName;
+            this.openedAtNanos = openedAtNanos;
+            this.allocation = allocation;
+            this.forceClose = forceClose;
+        }
+    }
+
+}
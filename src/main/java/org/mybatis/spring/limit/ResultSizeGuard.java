@@ -0,0 +1,147 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.limit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Counts the rows and estimates the size of the values read by one query, failing the
+ * {@code ResultSet#next()} call that passes a limit. The JDBC {@code Statement} given to the
+ * {@code ResultSetHandler} is wrapped so every {@code ResultSet} it returns is counted.
+ *
+ * @since 2.0.2
+ */
+final class ResultSizeGuard {
+
+    // object header and list slot of a mapped row
+    private static final int ROW_OVERHEAD = 24;
+
+    private final String statement;
+
+    private final long maxRows;
+
+    private final long maxBytes;
+
+    private long rows;
+
+    private long bytes;
+
+    private boolean read;
+
+    ResultSizeGuard(String statement, long maxRows, long maxBytes) {
+        this.statement = statement;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+    }
+
+    long getMaxRows() {
+        return this.maxRows;
+    }
+
+    long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    long getRows() {
+        return this.rows;
+    }
+
+    long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Returns if a {@code ResultSet} was read, which is not the case of cached results.
+     */
+    boolean isRead() {
+        return this.read;
+    }
+
+    Statement wrap(Statement statement) {
+        this.read = true;
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Object result = invoke(statement, method, args);
+                    return result instanceof ResultSet ? wrap((ResultSet) result) : result;
+                });
+    }
+
+    private ResultSet wrap(ResultSet resultSet) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            Object result = invoke(resultSet, method, args);
+            String name = method.getName();
+            if ("next".equals(name)) {
+                next((Boolean) result);
+            } else if (this.maxBytes > 0 && args != null && args.length > 0 && name.startsWith("get")) {
+                this.bytes += estimate(result);
+            }
+            return result;
+        };
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private void next(boolean hasRow) {
+        if (hasRow) {
+            this.rows++;
+            if (this.maxBytes > 0) {
+                this.bytes += ROW_OVERHEAD;
+            }
+        }
+        if (this.maxRows > 0 && this.rows > this.maxRows) {
+            throw new ResultSizeLimitExceededException("Statement '" + this.statement + "' returned more than "
+                    + this.maxRows + " rows", this.statement, this.rows, this.bytes);
+        }
+        if (this.maxBytes > 0 && this.bytes > this.maxBytes) {
+            throw new ResultSizeLimitExceededException("Statement '" + this.statement + "' returned more than "
+                    + this.maxBytes + " estimated bytes in " + this.rows + " rows", this.statement, this.rows, this.bytes);
+        }
+    }
+
+    /**
+     * Roughly estimates the heap retained by a column value once mapped.
+     */
+    private static long estimate(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Byte) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        } else if (value instanceof Number && !(value instanceof BigDecimal)) {
+            return 16;
+        }
+        return 48;
+    }
+
+}
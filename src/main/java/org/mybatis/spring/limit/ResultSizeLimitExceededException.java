@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.limit;
+
+import org.springframework.dao.DataRetrievalFailureException;
+
+/**
+ * Thrown when a query reads more rows, or more estimated bytes, than the limits set on the
+ * {@link ResultSizeLimitInterceptor}. The fetch is aborted as soon as a limit is passed, so the
+ * counts are the ones reached at that point, not the full size of the result.
+ *
+ * @since 2.0.2
+ */
+@SuppressWarnings("serial")
+public class ResultSizeLimitExceededException extends DataRetrievalFailureException {
+
+    private final String statement;
+
+    private final long rowCount;
+
+    private final long estimatedBytes;
+
+    /**
+     * Constructor for ResultSizeLimitExceededException.
+     *
+     * @param msg the detail message
+     * @param statement the id of the statement
+     * @param rowCount the number of rows read when the fetch was aborted
+     * @param estimatedBytes the estimated size of the rows read when the fetch was aborted
+     */
+    public ResultSizeLimitExceededException(String msg, String statement, long rowCount, long estimatedBytes) {
+        super(msg);
+        this.statement = statement;
+        this.rowCount = rowCount;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    public String getStatement() {
+        return this.statement;
+    }
+
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * @return the estimated size of the rows read, or {@code 0} if no byte limit applied
+     */
+    public long getEstimatedBytes() {
+        return this.estimatedBytes;
+    }
+
+}
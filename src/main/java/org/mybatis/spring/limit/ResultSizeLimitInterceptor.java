@@ -0,0 +1,268 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.limit;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * MyBatis plugin that limits the number of rows, and the estimated bytes, a query may load in
+ * memory. The fetch is aborted with a {@link ResultSizeLimitExceededException} as soon as a limit
+ * is passed, before the whole result is materialized. Calls made through
+ * {@code SqlSessionTemplate} and through mappers are both guarded.
+ * <p>
+ * Only the queries building a result list are guarded: {@code selectList}, {@code selectOne},
+ * {@code selectMap} and the mapper methods built on them. Queries streaming their rows to a
+ * {@code ResultHandler} or a {@code Cursor} are not. Limits can be set globally and overridden per
+ * statement, {@code 0} meaning no limit; statements without any limit are not wrapped at all.
+ * <p>
+ * The row count is exact. The byte size is an estimate of the heap retained by the mapped values,
+ * computed from the values read from the {@code ResultSet}, and is only computed for statements
+ * having a byte limit as it costs a little for every column read.
+ * <p>
+ * The plugin records how close the statements come to their limits, see {@link #getUsages()}.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionFactory" class="org.mybatis.spring.SqlSessionFactoryBean">
+ *   <property name="dataSource" ref="dataSource" />
+ *   <property name="plugins">
+ *     <bean class="org.mybatis.spring.limit.ResultSizeLimitInterceptor">
+ *       <property name="maxRows" value="100000" />
+ *       <property name="maxBytes" value="268435456" />
+ *     </bean>
+ *   </property>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see ResultSizeLimitExceededException
+ * @since 2.0.2
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = ResultSetHandler.class, method = "handleResultSets", args = {Statement.class})})
+public class ResultSizeLimitInterceptor implements Interceptor {
+
+    // the guard of the query being run by the current thread, nested queries have their own
+    private static final ThreadLocal<ResultSizeGuard> CURRENT_GUARD = new ThreadLocal<>();
+
+    private long maxRows;
+
+    private long maxBytes;
+
+    private Map<String, Long> statementMaxRows = Collections.emptyMap();
+
+    private Map<String, Long> statementMaxBytes = Collections.emptyMap();
+
+    private final Map<String, Usage> usages = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the maximum number of rows a query may read. Defaults to {@code 0}, no limit.
+     *
+     * @param maxRows the maximum number of rows
+     */
+    public void setMaxRows(long maxRows) {
+        isTrue(maxRows >= 0, "Property 'maxRows' must be positive");
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Sets the maximum estimated size of the values a query may read. Defaults to {@code 0}, no limit.
+     *
+     * @param maxBytes the maximum estimated size in bytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        isTrue(maxBytes >= 0, "Property 'maxBytes' must be positive");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Overrides the row limit of some statements, {@code 0} removing the limit.
+     *
+     * @param statementMaxRows the maximum number of rows keyed by statement id
+     */
+    public void setStatementMaxRows(Map<String, Long> statementMaxRows) {
+        notNull(statementMaxRows, "Property 'statementMaxRows' is required");
+        this.statementMaxRows = new HashMap<>(statementMaxRows);
+    }
+
+    /**
+     * Overrides the byte limit of some statements, {@code 0} removing the limit.
+     *
+     * @param statementMaxBytes the maximum estimated sizes in bytes keyed by statement id
+     */
+    public void setStatementMaxBytes(Map<String, Long> statementMaxBytes) {
+        notNull(statementMaxBytes, "Property 'statementMaxBytes' is required");
+        this.statementMaxBytes = new HashMap<>(statementMaxBytes);
+    }
+
+    /**
+     * Returns how close every guarded statement came to its limits since the last {@link #clear()}.
+     *
+     * @return the usages, in no particular order
+     */
+    public List<ResultSizeUsage> getUsages() {
+        List<ResultSizeUsage> usages = new ArrayList<>(this.usages.size());
+        this.usages.forEach((statement, usage) -> usages.add(usage.snapshot(statement)));
+        return usages;
+    }
+
+    /**
+     * Returns how close the given statement came to its limits, or {@code null} if it was not run
+     * with a limit.
+     *
+     * @param statement the statement id
+     * @return the usage of the statement
+     */
+    public ResultSizeUsage getUsage(String statement) {
+        Usage usage = this.usages.get(statement);
+        return usage == null ? null : usage.snapshot(statement);
+    }
+
+    public void clear() {
+        this.usages.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        if (invocation.getTarget() instanceof ResultSetHandler) {
+            ResultSizeGuard guard = CURRENT_GUARD.get();
+            if (guard != null) {
+                invocation.getArgs()[0] = guard.wrap((Statement) invocation.getArgs()[0]);
+            }
+            return invocation.proceed();
+        }
+        Object[] args = invocation.getArgs();
+        ResultSizeGuard guard = args[3] == Executor.NO_RESULT_HANDLER ? guardOf(((MappedStatement) args[0]).getId()) : null;
+        ResultSizeGuard previous = CURRENT_GUARD.get();
+        CURRENT_GUARD.set(guard);
+        boolean exceeded = false;
+        try {
+            return invocation.proceed();
+        } catch (InvocationTargetException e) {
+            // the limit may have been passed by a nested query
+            exceeded = guard != null && e.getTargetException() instanceof ResultSizeLimitExceededException
+                    && guard.getRows() == ((ResultSizeLimitExceededException) e.getTargetException()).getRowCount();
+            throw e;
+        } finally {
+            if (previous == null) {
+                CURRENT_GUARD.remove();
+            } else {
+                CURRENT_GUARD.set(previous);
+            }
+            if (guard != null && guard.isRead()) {
+                this.usages.computeIfAbsent(((MappedStatement) args[0]).getId(), statement -> new Usage()).record(guard, exceeded);
+            }
+        }
+    }
+
+    private ResultSizeGuard guardOf(String statement) {
+        long rows = this.statementMaxRows.getOrDefault(statement, this.maxRows);
+        long bytes = this.statementMaxBytes.getOrDefault(statement, this.maxBytes);
+        return rows > 0 || bytes > 0 ? new ResultSizeGuard(statement, rows, bytes) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object plugin(Object target) {
+        return Plugin.wrap(target, this);
+    }
+
+    /**
+     * Reads the {@code maxRows} and {@code maxBytes} properties when the plugin is declared in a
+     * MyBatis XML configuration.
+     */
+    @Override
+    public void setProperties(Properties properties) {
+        String maxRows = properties.getProperty("maxRows");
+        if (maxRows != null) {
+            setMaxRows(Long.parseLong(maxRows));
+        }
+        String maxBytes = properties.getProperty("maxBytes");
+        if (maxBytes != null) {
+            setMaxBytes(Long.parseLong(maxBytes));
+        }
+    }
+
+    /**
+     * Peaks of one statement, updated concurrently.
+     */
+    private static final class Usage {
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder exceeded = new LongAdder();
+
+        private final LongAccumulator peakRows = new LongAccumulator(Math::max, 0);
+
+        private final LongAccumulator peakBytes = new LongAccumulator(Math::max, 0);
+
+        private volatile long maxRows;
+
+        private volatile long maxBytes;
+
+        void record(ResultSizeGuard guard, boolean exceeded) {
+            this.maxRows = guard.getMaxRows();
+            this.maxBytes = guard.getMaxBytes();
+            this.calls.increment();
+            if (exceeded) {
+                this.exceeded.increment();
+            }
+            this.peakRows.accumulate(guard.getRows());
+            this.peakBytes.accumulate(guard.getBytes());
+        }
+
+        ResultSizeUsage snapshot(String statement) {
+            return new ResultSizeUsage(statement, this.maxRows, this.maxBytes, this.calls.sum(), this.exceeded.sum(),
+                    this.peakRows.get(), this.peakBytes.get());
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.limit;
+
+/**
+ * Immutable view of how close the guarded calls of one statement came to their limits. Only the
+ * calls that read a {@code ResultSet}, not the ones answered from a cache, are recorded.
+ *
+ * @since 2.0.2
+ */
+public final class ResultSizeUsage {
+
+    private final String statement;
+
+    private final long maxRows;
+
+    private final long maxBytes;
+
+    private final long calls;
+
+    private final long exceeded;
+
+    private final long peakRows;
+
+    private final long peakBytes;
+
+    ResultSizeUsage(String statement, long maxRows, long maxBytes, long calls, long exceeded, long peakRows, long peakBytes) {
+        this.statement = statement;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.calls = calls;
+        this.exceeded = exceeded;
+        this.peakRows = peakRows;
+        this.peakBytes = peakBytes;
+    }
+
+    public String getStatement() {
+        return this.statement;
+    }
+
+    /**
+     * @return the current row limit of the statement, or {@code 0} if none
+     */
+    public long getMaxRows() {
+        return this.maxRows;
+    }
+
+    /**
+     * @return the current byte limit of the statement, or {@code 0} if none
+     */
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public long getCalls() {
+        return this.calls;
+    }
+
+    /**
+     * @return the number of calls aborted because they passed a limit
+     */
+    public long getExceeded() {
+        return this.exceeded;
+    }
+
+    /**
+     * @return the largest number of rows read by a single call
+     */
+    public long getPeakRows() {
+        return this.peakRows;
+    }
+
+    /**
+     * @return the largest estimated size read by a single call, {@code 0} if no byte limit applied
+     */
+    public long getPeakBytes() {
+        return this.peakBytes;
+    }
+
+    /**
+     * @return the peak rows as a fraction of the row limit, or {@code 0} if there is no row limit
+     */
+    public double getPeakRowsRatio() {
+        return this.maxRows > 0 ? (double) this.peakRows / this.maxRows : 0;
+    }
+
+    /**
+     * @return the peak bytes as a fraction of the byte limit, or {@code 0} if there is no byte limit
+     */
+    public double getPeakBytesRatio() {
+        return this.maxBytes > 0 ? (double) this.peakBytes / this.maxBytes : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultSizeUsage[statement=" + this.statement + ", calls=" + this.calls + ", exceeded=" + this.exceeded
+                + ", peakRows=" + this.peakRows + "/" + this.maxRows + ", peakBytes=" + this.peakBytes + "/" + this.maxBytes + "]";
+    }
+
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.mapper;
+
+import static org.apache.ibatis.reflection.ExceptionUtil.unwrapThrowable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ibatis.annotations.MapKey;
+import org.apache.ibatis.binding.BindingException;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.reflection.ParamNameResolver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.mybatis.spring.AsyncSqlSessionTemplate;
+import org.springframework.core.ResolvableType;
+
+/**
+ * Wraps a MyBatis mapper so its methods returning {@code CompletableFuture<T>} are run through an
+ * {@code AsyncSqlSessionTemplate}. All the other methods are delegated to the MyBatis mapper.
+ * <p>
+ * MyBatis binds the result type of annotated statements from the declared return type of the
+ * method, so {@code CompletableFuture} methods should be mapped in XML or use a {@code @ResultMap}.
+ *
+ * @see MapperFactoryBean#setAsyncSqlSessionTemplate(AsyncSqlSessionTemplate)
+ * @since 2.0.2
+ */
+final class AsyncMapperProxy<T> implements InvocationHandler {
+
+    private final Class<T> mapperInterface;
+
+    private final T mapper;
+
+    private final AsyncSqlSessionTemplate asyncSqlSessionTemplate;
+
+    private final Map<Method, AsyncMapperMethod> methodCache = new ConcurrentHashMap<>();
+
+    private AsyncMapperProxy(Class<T> mapperInterface, T mapper, AsyncSqlSessionTemplate asyncSqlSessionTemplate) {
+        this.mapperInterface = mapperInterface;
+        this.mapper = mapper;
+        this.asyncSqlSessionTemplate = asyncSqlSessionTemplate;
+    }
+
+    /**
+     * Returns if any method of the given mapper interface returns a {@code CompletableFuture}.
+     */
+    static boolean hasAsyncMethods(Class<?> mapperInterface) {
+        for (Method method : mapperInterface.getMethods()) {
+            if (isAsync(method)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T newInstance(Class<T> mapperInterface, T mapper, AsyncSqlSessionTemplate asyncSqlSessionTemplate) {
+        return (T) Proxy.newProxyInstance(mapperInterface.getClassLoader(), new Class<?>[]{mapperInterface},
+                new AsyncMapperProxy<>(mapperInterface, mapper, asyncSqlSessionTemplate));
+    }
+
+    private static boolean isAsync(Method method) {
+        return method.getReturnType() == CompletableFuture.class && !method.isDefault();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        try {
+            if (Object.class.equals(method.getDeclaringClass())) {
+                return method.invoke(this, args);
+            } else if (!isAsync(method)) {
+                return method.invoke(this.mapper, args);
+            }
+        } catch (Throwable t) {
+            throw unwrapThrowable(t);
+        }
+        AsyncMapperMethod mapperMethod = this.methodCache.computeIfAbsent(method, this::newMapperMethod);
+        return mapperMethod.execute(this.asyncSqlSessionTemplate, args);
+    }
+
+    private AsyncMapperMethod newMapperMethod(Method method) {
+        Configuration configuration = this.asyncSqlSessionTemplate.getSqlSessionTemplate().getConfiguration();
+        MappedStatement ms = resolveMappedStatement(configuration, this.mapperInterface, method);
+        if (ms == null) {
+            throw new BindingException("Invalid bound statement (not found): "
+                    + this.mapperInterface.getName() + "." + method.getName());
+        }
+        for (ResultMap resultMap : ms.getResultMaps()) {
+            if (ms.getSqlCommandType() == SqlCommandType.SELECT && CompletableFuture.class.equals(resultMap.getType())) {
+                throw new BindingException("Statement '" + ms.getId()
+                        + "' maps its results to CompletableFuture, declare it in XML or with a @ResultMap");
+            }
+        }
+        Class<?> resultType = ResolvableType.forMethodReturnType(method, this.mapperInterface)
+                .as(CompletableFuture.class).getGeneric(0).resolve(Object.class);
+        return new AsyncMapperMethod(configuration, method, ms, resultType);
+    }
+
+    private static MappedStatement resolveMappedStatement(Configuration configuration, Class<?> mapperInterface, Method method) {
+        String statementId = mapperInterface.getName() + "." + method.getName();
+        if (configuration.hasStatement(statementId)) {
+            return configuration.getMappedStatement(statementId);
+        } else if (mapperInterface.equals(method.getDeclaringClass())) {
+            return null;
+        }
+        for (Class<?> superInterface : mapperInterface.getInterfaces()) {
+            if (method.getDeclaringClass().isAssignableFrom(superInterface)) {
+                MappedStatement ms = resolveMappedStatement(configuration, superInterface, method);
+                if (ms != null) {
+                    return ms;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs a {@code CompletableFuture} returning mapper method with the same rules MyBatis applies
+     * to the synchronous ones, using the type argument of the future as the return type. Calls go
+     * through the methods of the template, so single-flight and batch loading apply to them.
+     */
+    private static final class AsyncMapperMethod {
+
+        private final String statement;
+
+        private final SqlCommandType commandType;
+
+        private final Class<?> resultType;
+
+        private final String mapKey;
+
+        private final int rowBoundsIndex;
+
+        private final ParamNameResolver paramNameResolver;
+
+        AsyncMapperMethod(Configuration configuration, Method method, MappedStatement ms, Class<?> resultType) {
+            this.statement = ms.getId();
+            this.commandType = ms.getSqlCommandType();
+            this.resultType = resultType;
+            this.mapKey = method.isAnnotationPresent(MapKey.class) ? method.getAnnotation(MapKey.class).value() : null;
+            this.rowBoundsIndex = indexOf(method, RowBounds.class);
+            if (indexOf(method, ResultHandler.class) >= 0) {
+                throw new BindingException("Mapper method '" + method + "' returning a CompletableFuture cannot take a ResultHandler");
+            }
+            this.paramNameResolver = new ParamNameResolver(configuration, method);
+        }
+
+        private static int indexOf(Method method, Class<?> type) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (type.isAssignableFrom(parameterTypes[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        CompletableFuture<?> execute(AsyncSqlSessionTemplate template, Object[] args) {
+            Object param = this.paramNameResolver.getNamedParams(args);
+            switch (this.commandType) {
+                case SELECT:
+                    RowBounds rowBounds = this.rowBoundsIndex >= 0 ? (RowBounds) args[this.rowBoundsIndex] : RowBounds.DEFAULT;
+                    if (Collection.class.isAssignableFrom(this.resultType)) {
+                        return template.selectList(this.statement, param, rowBounds);
+                    } else if (this.mapKey != null && Map.class.isAssignableFrom(this.resultType)) {
+                        return template.selectMap(this.statement, param, this.mapKey, rowBounds);
+                    } else if (Optional.class.equals(this.resultType)) {
+                        return template.selectOne(this.statement, param).thenApply(Optional::ofNullable);
+                    }
+                    return template.selectOne(this.statement, param);
+                case INSERT:
+                    return template.insert(this.statement, param).thenApply(this::rowCountResult);
+                case UPDATE:
+                    return template.update(this.statement, param).thenApply(this::rowCountResult);
+                case DELETE:
+                    return template.delete(this.statement, param).thenApply(this::rowCountResult);
+                case FLUSH:
+                    return template.execute(SqlSession::flushStatements);
+                default:
+                    throw new BindingException("Unknown execution method for: " + this.statement);
+            }
+        }
+
+        private Object rowCountResult(int rowCount) {
+            if (Void.class.equals(this.resultType)) {
+                return null;
+            } else if (Long.class.equals(this.resultType)) {
+                return (long) rowCount;
+            } else if (Boolean.class.equals(this.resultType)) {
+                return rowCount > 0;
+            }
+            return rowCount;
+        }
+    }
+
+}
@@ -85,6 +85,8 @@ public class ClassPathMapperScanner extends ClassPathBeanDefinitionScanner {
 
     private String sqlSessionFactoryBeanName;
 
+    private String asyncSqlSessionTemplateBeanName;
+
     private Class<? extends Annotation> annotationClass;
 
     private Class<?> markerInterface;
@@ -123,6 +125,13 @@ public class ClassPathMapperScanner extends ClassPathBeanDefinitionScanner {
         this.sqlSessionFactoryBeanName = sqlSessionFactoryBeanName;
     }
 
+    /**
+     * @since 2.0.2
+     */
+    public void setAsyncSqlSessionTemplateBeanName(String asyncSqlSessionTemplateBeanName) {
+        this.asyncSqlSessionTemplateBeanName = asyncSqlSessionTemplateBeanName;
+    }
+
     /**
      * @deprecated Since 2.0.1, Please use the {@link #setMapperFactoryBeanClass(Class)}.
      */
@@ -276,6 +285,10 @@ public class ClassPathMapperScanner extends ClassPathBeanDefinitionScanner {
                 explicitFactoryUsed = true;
             }
 
+            if (StringUtils.hasText(this.asyncSqlSessionTemplateBeanName)) {
+                definition.getPropertyValues().add("asyncSqlSessionTemplate", new RuntimeBeanReference(this.asyncSqlSessionTemplateBeanName));
+            }
+
             if (!explicitFactoryUsed) {
                 LOGGER.debug(() -> "Enabling autowire by type for MapperFactoryBean with name '" + holder.getBeanName() + "'.");
                 definition.setAutowireMode(AbstractBeanDefinition.AUTOWIRE_BY_TYPE);
@@ -15,10 +15,13 @@
  */
 package org.mybatis.spring.mapper;
 
+import static org.springframework.util.Assert.isTrue;
 import static org.springframework.util.Assert.notNull;
 
 import org.apache.ibatis.executor.ErrorContext;
 import org.apache.ibatis.session.Configuration;
+import org.mybatis.spring.AsyncSqlSessionTemplate;
+import org.mybatis.spring.ShardedSqlSessionTemplate;
 import org.mybatis.spring.SqlSessionFactoryBean;
 import org.mybatis.spring.SqlSessionTemplate;
 import org.mybatis.spring.support.SqlSessionDaoSupport;
@@ -64,6 +67,8 @@ public class MapperFactoryBean<T> extends SqlSessionDaoSupport implements Factor
 
     private boolean addToConfig = true;
 
+    private AsyncSqlSessionTemplate asyncSqlSessionTemplate;
+
     public MapperFactoryBean() {
         //intentionally empty
     }
@@ -82,13 +87,31 @@ public class MapperFactoryBean<T> extends SqlSessionDaoSupport implements Factor
 
         notNull(this.mapperInterface, "Property 'mapperInterface' is required");
 
-        Configuration configuration = getSqlSession().getConfiguration();
+        if (AsyncMapperProxy.hasAsyncMethods(this.mapperInterface)) {
+            notNull(this.asyncSqlSessionTemplate,
+                    "Property 'asyncSqlSessionTemplate' is required for mapper methods returning CompletableFuture");
+            isTrue(this.asyncSqlSessionTemplate.getSqlSessionTemplate().getSqlSessionFactory() == getSqlSessionFactory(),
+                    "Property 'asyncSqlSessionTemplate' must use the same SqlSessionFactory as the mapper");
+        }
 
         /**
          * 添加 mapper 至 mybatis 的 configuration 中，但是这里一般运行不到这里，因为在 {@link SqlSessionFactoryBean#buildSqlSessionFactory()}
          * 会加载 mapper-xml 文件
          */
-        if (this.addToConfig && !configuration.hasMapper(this.mapperInterface)) {
+        if (this.addToConfig) {
+            if (getSqlSession() instanceof ShardedSqlSessionTemplate) {
+                // every shard runs the statements of the mapper
+                for (SqlSessionTemplate shard : ((ShardedSqlSessionTemplate) getSqlSession()).getShards()) {
+                    addToConfiguration(shard.getConfiguration());
+                }
+            } else {
+                addToConfiguration(getSqlSession().getConfiguration());
+            }
+        }
+    }
+
+    private void addToConfiguration(Configuration configuration) {
+        if (!configuration.hasMapper(this.mapperInterface)) {
             try {
                 configuration.addMapper(this.mapperInterface);
             } catch (Exception e) {
@@ -110,7 +133,11 @@ public class MapperFactoryBean<T> extends SqlSessionDaoSupport implements Factor
         /**
          * 进入 {@link SqlSessionTemplate#getMapper(Class)}
          */
-        return getSqlSession().getMapper(this.mapperInterface);
+        T mapper = getSqlSession().getMapper(this.mapperInterface);
+        if (this.asyncSqlSessionTemplate != null && AsyncMapperProxy.hasAsyncMethods(this.mapperInterface)) {
+            return AsyncMapperProxy.newInstance(this.mapperInterface, mapper, this.asyncSqlSessionTemplate);
+        }
+        return mapper;
     }
 
     /**
@@ -173,4 +200,29 @@ public class MapperFactoryBean<T> extends SqlSessionDaoSupport implements Factor
     public boolean isAddToConfig() {
         return addToConfig;
     }
+
+    /**
+     * Sets the {@code AsyncSqlSessionTemplate} that runs the mapper methods returning a
+     * {@code CompletableFuture}. It is required if the mapper interface declares any, and it must
+     * use the same {@code SqlSessionFactory} as this factory bean. Scanned mappers get it from the
+     * {@code asyncSqlSessionTemplateRef} of {@code @MapperScan}, the
+     * {@code asyncSqlSessionTemplateBeanName} of {@code MapperScannerConfigurer} or the
+     * {@code async-template-ref} of {@code <mybatis:scan/>}.
+     *
+     * @param asyncSqlSessionTemplate a template that runs the calls asynchronously
+     * @since 2.0.2
+     */
+    public void setAsyncSqlSessionTemplate(AsyncSqlSessionTemplate asyncSqlSessionTemplate) {
+        this.asyncSqlSessionTemplate = asyncSqlSessionTemplate;
+    }
+
+    /**
+     * Return the template that runs the mapper methods returning a {@code CompletableFuture}.
+     *
+     * @return the asynchronous template, or {@code null} if none is set
+     * @since 2.0.2
+     */
+    public AsyncSqlSessionTemplate getAsyncSqlSessionTemplate() {
+        return asyncSqlSessionTemplate;
+    }
 }
@@ -127,6 +127,8 @@ public class MapperScannerConfigurer implements BeanDefinitionRegistryPostProces
 
     private String sqlSessionTemplateBeanName;
 
+    private String asyncSqlSessionTemplateBeanName;
+
     private Class<? extends Annotation> annotationClass;
 
     private Class<?> markerInterface;
@@ -254,6 +256,22 @@ public class MapperScannerConfigurer implements BeanDefinitionRegistryPostProces
         this.sqlSessionFactoryBeanName = sqlSessionFactoryName;
     }
 
+    /**
+     * Specifies the {@code AsyncSqlSessionTemplate} running the mapper methods returning a
+     * {@code CompletableFuture}. It is required if a scanned mapper declares any, and it must use
+     * the same {@code SqlSessionFactory} as the mappers.
+     * <p>
+     * Note bean names are used, not bean references, as for {@code sqlSessionTemplateBeanName}.
+     *
+     * @since 2.0.2
+     *
+     * @param asyncSqlSessionTemplateName Bean name of the {@code AsyncSqlSessionTemplate}
+     * @see MapperFactoryBean#setAsyncSqlSessionTemplate(org.mybatis.spring.AsyncSqlSessionTemplate)
+     */
+    public void setAsyncSqlSessionTemplateBeanName(String asyncSqlSessionTemplateName) {
+        this.asyncSqlSessionTemplateBeanName = asyncSqlSessionTemplateName;
+    }
+
     /**
      * Specifies a flag that whether execute a property placeholder processing or not.
      * <p>
@@ -351,6 +369,7 @@ public class MapperScannerConfigurer implements BeanDefinitionRegistryPostProces
         scanner.setSqlSessionTemplate(this.sqlSessionTemplate);
         scanner.setSqlSessionFactoryBeanName(this.sqlSessionFactoryBeanName);
         scanner.setSqlSessionTemplateBeanName(this.sqlSessionTemplateBeanName);
+        scanner.setAsyncSqlSessionTemplateBeanName(this.asyncSqlSessionTemplateBeanName);
         scanner.setResourceLoader(this.applicationContext);
         scanner.setBeanNameGenerator(this.nameGenerator);
         scanner.setMapperFactoryBeanClass(this.mapperFactoryBeanClass);
@@ -391,6 +410,7 @@ public class MapperScannerConfigurer implements BeanDefinitionRegistryPostProces
             this.basePackage = updatePropertyValue("basePackage", values);
             this.sqlSessionFactoryBeanName = updatePropertyValue("sqlSessionFactoryBeanName", values);
             this.sqlSessionTemplateBeanName = updatePropertyValue("sqlSessionTemplateBeanName", values);
+            this.asyncSqlSessionTemplateBeanName = updatePropertyValue("asyncSqlSessionTemplateBeanName", values);
         }
     }
 
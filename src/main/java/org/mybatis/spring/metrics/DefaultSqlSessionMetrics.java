@@ -0,0 +1,155 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.ibatis.session.ExecutorType;
+
+/**
+ * Default lock-free {@link SqlSessionMetrics}. It keeps, for every statement id, executor type and
+ * transactional mode, the number of calls, errors, rows and coalesced calls in {@code LongAdder}s
+ * and the call latencies in a {@link LatencyHistogram}. Recording a call after the first one of
+ * its kind does not allocate.
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionTemplate" class="org.mybatis.spring.SqlSessionTemplate">
+ *   <constructor-arg ref="sqlSessionFactory" />
+ *   <property name="sqlSessionMetrics">
+ *     <bean class="org.mybatis.spring.metrics.DefaultSqlSessionMetrics" />
+ *   </property>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @since 2.0.2
+ */
+public class DefaultSqlSessionMetrics implements SqlSessionMetrics {
+
+    private static final ExecutorType[] EXECUTOR_TYPES = ExecutorType.values();
+
+    private final Map<String, AtomicReferenceArray<StatementMetrics>> statements = new ConcurrentHashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordSuccess(String statement, ExecutorType executorType, boolean transactional, long elapsedNanos, int rowCount) {
+        StatementMetrics metrics = metricsOf(statement, executorType, transactional);
+        metrics.calls.increment();
+        if (rowCount > 0) {
+            metrics.rows.add(rowCount);
+        }
+        metrics.latency.record(elapsedNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordFailure(String statement, ExecutorType executorType, boolean transactional, long elapsedNanos, Throwable cause) {
+        StatementMetrics metrics = metricsOf(statement, executorType, transactional);
+        metrics.calls.increment();
+        metrics.errors.increment();
+        metrics.latency.record(elapsedNanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordCoalesced(String statement, ExecutorType executorType, long elapsedNanos) {
+        metricsOf(statement, executorType, false).coalesced.increment();
+    }
+
+    private StatementMetrics metricsOf(String statement, ExecutorType executorType, boolean transactional) {
+        AtomicReferenceArray<StatementMetrics> slots = this.statements.get(statement);
+        if (slots == null) {
+            slots = this.statements.computeIfAbsent(statement, key -> new AtomicReferenceArray<>(EXECUTOR_TYPES.length * 2));
+        }
+        int slot = executorType.ordinal() * 2 + (transactional ? 1 : 0);
+        StatementMetrics metrics = slots.get(slot);
+        if (metrics == null) {
+            slots.compareAndSet(slot, null, new StatementMetrics());
+            metrics = slots.get(slot);
+        }
+        return metrics;
+    }
+
+    /**
+     * Takes a snapshot of the metrics of every statement recorded so far.
+     *
+     * @return a snapshot per statement id, executor type and transactional mode
+     */
+    public List<StatementMetricsSnapshot> getSnapshots() {
+        List<StatementMetricsSnapshot> snapshots = new ArrayList<>();
+        this.statements.forEach((statement, slots) -> {
+            for (int slot = 0; slot < slots.length(); slot++) {
+                StatementMetrics metrics = slots.get(slot);
+                if (metrics != null) {
+                    snapshots.add(metrics.snapshot(statement, EXECUTOR_TYPES[slot / 2], slot % 2 == 1));
+                }
+            }
+        });
+        return snapshots;
+    }
+
+    /**
+     * Takes a snapshot of the metrics of a statement.
+     *
+     * @param statement the statement id
+     * @param executorType the executor type of the calls
+     * @param transactional the transactional mode of the calls
+     * @return a snapshot, or {@code null} if no call matches
+     */
+    public StatementMetricsSnapshot getSnapshot(String statement, ExecutorType executorType, boolean transactional) {
+        AtomicReferenceArray<StatementMetrics> slots = this.statements.get(statement);
+        StatementMetrics metrics = slots == null ? null : slots.get(executorType.ordinal() * 2 + (transactional ? 1 : 0));
+        return metrics == null ? null : metrics.snapshot(statement, executorType, transactional);
+    }
+
+    /**
+     * Forgets every metric recorded so far.
+     */
+    public void clear() {
+        this.statements.clear();
+    }
+
+    private static final class StatementMetrics {
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder rows = new LongAdder();
+
+        private final LongAdder coalesced = new LongAdder();
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        StatementMetricsSnapshot snapshot(String statement, ExecutorType executorType, boolean transactional) {
+            return new StatementMetricsSnapshot(statement, executorType, transactional,
+                    this.calls.sum(), this.errors.sum(), this.rows.sum(), this.coalesced.sum(), this.latency.snapshot());
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of positive {@code long} values (typically nanoseconds) with log-scaled
+ * buckets, in the spirit of HdrHistogram: every power of two is split in {@value #SUB_BUCKETS}
+ * linear sub buckets, so recorded values are kept with a relative error below 12.5% whatever
+ * their magnitude. Values above 2^40 (about 18 minutes in nanoseconds) fall in the last bucket.
+ * <p>
+ * Counts are striped over a few arrays, picked from the recording thread, so threads recording
+ * at the same time seldom contend on the same slot. Recording neither locks nor allocates.
+ *
+ * @since 2.0.2
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            this.counts[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        long v = Math.max(0L, value);
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        this.counts[stripe].incrementAndGet(bucketIndex(v));
+        this.total.add(v);
+        this.max.accumulate(v);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int group = exponent - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return group * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that falls in the given bucket.
+     */
+    static long highestValueOf(int bucketIndex) {
+        int group = bucketIndex >>> SUB_BUCKET_BITS;
+        int subBucket = bucketIndex & (SUB_BUCKETS - 1);
+        if (group == 0) {
+            return subBucket;
+        }
+        int shift = group - 1;
+        return (((long) (SUB_BUCKETS + subBucket + 1)) << shift) - 1;
+    }
+
+    /**
+     * Takes a consistent enough copy of the histogram. Values recorded while the snapshot is taken
+     * may or may not be included.
+     *
+     * @return a snapshot of the recorded values
+     */
+    public Snapshot snapshot() {
+        long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (AtomicLongArray stripe : this.counts) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                merged[i] += c;
+                count += c;
+            }
+        }
+        return new Snapshot(merged, count, this.total.sum(), this.max.get());
+    }
+
+    /**
+     * Immutable view of the values recorded in a {@code LatencyHistogram}.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long total;
+
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? 0d : (double) this.total / this.count;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the recorded values fall, rounded up to
+         * the highest value of its bucket and capped by the recorded maximum.
+         *
+         * @param quantile a fraction between 0 and 1, for example 0.99 for the 99th percentile
+         * @return the value at the quantile, or 0 if nothing was recorded
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (this.count == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(Math.min(1d, Math.max(0d, quantile)) * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), this.max);
+                }
+            }
+            return this.max;
+        }
+    }
+
+}
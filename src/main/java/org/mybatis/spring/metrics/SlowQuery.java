@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import java.util.List;
+
+/**
+ * A statement call captured by the {@link SlowQueryInterceptor} because it ran longer than its
+ * threshold. Parameter values are kept as truncated strings so a capture does not retain the
+ * objects passed to the statement.
+ *
+ * @since 2.0.2
+ */
+public final class SlowQuery {
+
+    private final long sequence;
+
+    private final long timestamp;
+
+    private final String statement;
+
+    private final String sql;
+
+    private final List<String> parameters;
+
+    private final long elapsedNanos;
+
+    private final long connectionWaitNanos;
+
+    private final String threadName;
+
+    SlowQuery(long sequence, long timestamp, String statement, String sql, List<String> parameters,
+              long elapsedNanos, long connectionWaitNanos, String threadName) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.statement = statement;
+        this.sql = sql;
+        this.parameters = parameters;
+        this.elapsedNanos = elapsedNanos;
+        this.connectionWaitNanos = connectionWaitNanos;
+        this.threadName = threadName;
+    }
+
+    /**
+     * @return the position of this capture in the log, increasing with every capture
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return the time the call ended, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public String getStatement() {
+        return this.statement;
+    }
+
+    public String getSql() {
+        return this.sql;
+    }
+
+    /**
+     * @return the sampled values of the first bind parameters, in binding order
+     */
+    public List<String> getParameters() {
+        return this.parameters;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * @return the time spent waiting for a JDBC connection during the call, or {@code -1} if the
+     * session does not use a {@code SpringManagedTransaction}
+     */
+    public long getConnectionWaitNanos() {
+        return this.connectionWaitNanos;
+    }
+
+    public String getThreadName() {
+        return this.threadName;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowQuery [statement=" + this.statement + ", elapsedNanos=" + this.elapsedNanos
+                + ", connectionWaitNanos=" + this.connectionWaitNanos + ", thread=" + this.threadName
+                + ", sql=" + this.sql + ", parameters=" + this.parameters + "]";
+    }
+
+}
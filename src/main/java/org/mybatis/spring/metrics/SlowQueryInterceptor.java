@@ -0,0 +1,269 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.springframework.util.Assert.isTrue;
+import static org.springframework.util.Assert.notNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ParameterMode;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.transaction.Transaction;
+import org.mybatis.logging.Logger;
+import org.mybatis.logging.LoggerFactory;
+import org.mybatis.spring.transaction.SpringManagedTransaction;
+
+/**
+ * MyBatis plugin that captures the statement calls running longer than a threshold into a
+ * {@link SlowQueryLog}: the statement id, the bound SQL, the first bind parameter values, the
+ * elapsed time and the time spent waiting for a JDBC connection. Calls made through
+ * {@code SqlSessionTemplate} and through mappers are both captured.
+ * <p>
+ * Fast calls only pay for two {@code System.nanoTime()} calls, the SQL and the parameters are only
+ * read once a call is known to be slow. In {@code BATCH} executors an update only queues the
+ * statement, so the time spent flushing the batch is not captured.
+ * <p>
+ * It must be registered in the MyBatis configuration, for example:
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionFactory" class="org.mybatis.spring.SqlSessionFactoryBean">
+ *   <property name="dataSource" ref="dataSource" />
+ *   <property name="plugins">
+ *     <bean class="org.mybatis.spring.metrics.SlowQueryInterceptor">
+ *       <property name="thresholdMillis" value="500" />
+ *     </bean>
+ *   </property>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see SlowQueryLog
+ * @since 2.0.2
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor",
+                args = {MappedStatement.class, Object.class, RowBounds.class})})
+public class SlowQueryInterceptor implements Interceptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryInterceptor.class);
+
+    private SlowQueryLog slowQueryLog = new SlowQueryLog();
+
+    private long thresholdNanos = TimeUnit.SECONDS.toNanos(1);
+
+    private Map<String, Long> statementThresholdNanos = Collections.emptyMap();
+
+    private int maxParameters = 10;
+
+    private int maxParameterLength = 100;
+
+    public SlowQueryLog getSlowQueryLog() {
+        return this.slowQueryLog;
+    }
+
+    /**
+     * Sets the log slow calls are captured into. A new log of 256 captures is used by default.
+     *
+     * @param slowQueryLog the log of slow calls
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        notNull(slowQueryLog, "Property 'slowQueryLog' is required");
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    /**
+     * Sets the elapsed time above which a call is captured. Defaults to one second.
+     *
+     * @param thresholdMillis the threshold in milliseconds
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        isTrue(thresholdMillis >= 0, "Property 'thresholdMillis' must be positive");
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Overrides the threshold of some statements.
+     *
+     * @param statementThresholdsMillis the thresholds in milliseconds keyed by statement id
+     */
+    public void setStatementThresholdsMillis(Map<String, Long> statementThresholdsMillis) {
+        notNull(statementThresholdsMillis, "Property 'statementThresholdsMillis' is required");
+        Map<String, Long> thresholds = new HashMap<>();
+        statementThresholdsMillis.forEach((statement, millis) -> thresholds.put(statement, TimeUnit.MILLISECONDS.toNanos(millis)));
+        this.statementThresholdNanos = thresholds;
+    }
+
+    /**
+     * Sets how many bind parameter values are captured per call. Defaults to 10, 0 captures none.
+     *
+     * @param maxParameters the maximum number of captured values
+     */
+    public void setMaxParameters(int maxParameters) {
+        isTrue(maxParameters >= 0, "Property 'maxParameters' must be positive");
+        this.maxParameters = maxParameters;
+    }
+
+    /**
+     * Sets the length captured values are truncated to. Defaults to 100 characters.
+     *
+     * @param maxParameterLength the maximum length of a captured value
+     */
+    public void setMaxParameterLength(int maxParameterLength) {
+        isTrue(maxParameterLength > 0, "Property 'maxParameterLength' must be greater than 0");
+        this.maxParameterLength = maxParameterLength;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Transaction transaction = ((Executor) invocation.getTarget()).getTransaction();
+        long waitBefore = connectionWaitNanos(transaction);
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            Object[] args = invocation.getArgs();
+            MappedStatement ms = (MappedStatement) args[0];
+            if (elapsed >= thresholdOf(ms.getId())) {
+                long waitAfter = connectionWaitNanos(transaction);
+                capture(ms, args, elapsed, waitBefore < 0 ? -1L : waitAfter - waitBefore);
+            }
+        }
+    }
+
+    private long thresholdOf(String statement) {
+        Long threshold = this.statementThresholdNanos.get(statement);
+        return threshold == null ? this.thresholdNanos : threshold;
+    }
+
+    private static long connectionWaitNanos(Transaction transaction) {
+        return transaction instanceof SpringManagedTransaction
+                ? ((SpringManagedTransaction) transaction).getConnectionWaitNanos() : -1L;
+    }
+
+    private void capture(MappedStatement ms, Object[] args, long elapsedNanos, long connectionWaitNanos) {
+        String sql = null;
+        List<String> parameters = Collections.emptyList();
+        try {
+            Object parameterObject = args[1];
+            BoundSql boundSql = args.length == 6 ? (BoundSql) args[5] : ms.getBoundSql(parameterObject);
+            sql = boundSql.getSql();
+            parameters = sampleParameters(ms.getConfiguration(), boundSql, parameterObject);
+        } catch (RuntimeException e) {
+            // never fail the statement call because it could not be captured
+            LOGGER.debug(() -> "Could not capture the SQL of slow statement '" + ms.getId() + "': " + e);
+        }
+        this.slowQueryLog.add(ms.getId(), sql, parameters, elapsedNanos, connectionWaitNanos);
+    }
+
+    /**
+     * Reads the first bind parameter values the same way the {@code DefaultParameterHandler} does.
+     */
+    private List<String> sampleParameters(Configuration configuration, BoundSql boundSql, Object parameterObject) {
+        List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+        if (this.maxParameters == 0 || parameterMappings == null || parameterMappings.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> parameters = new ArrayList<>(Math.min(this.maxParameters, parameterMappings.size()));
+        MetaObject metaObject = null;
+        for (ParameterMapping parameterMapping : parameterMappings) {
+            if (parameters.size() == this.maxParameters) {
+                break;
+            }
+            if (parameterMapping.getMode() == ParameterMode.OUT) {
+                continue;
+            }
+            String property = parameterMapping.getProperty();
+            Object value;
+            if (boundSql.hasAdditionalParameter(property)) {
+                value = boundSql.getAdditionalParameter(property);
+            } else if (parameterObject == null) {
+                value = null;
+            } else if (configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+                value = parameterObject;
+            } else {
+                if (metaObject == null) {
+                    metaObject = configuration.newMetaObject(parameterObject);
+                }
+                value = metaObject.getValue(property);
+            }
+            parameters.add(truncate(String.valueOf(value)));
+        }
+        return Collections.unmodifiableList(parameters);
+    }
+
+    private String truncate(String value) {
+        return value.length() <= this.maxParameterLength ? value : value.substring(0, this.maxParameterLength) + "...";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object plugin(Object target) {
+        return Plugin.wrap(target, this);
+    }
+
+    /**
+     * Reads the {@code thresholdMillis}, {@code maxParameters} and {@code maxParameterLength}
+     * properties when the plugin is declared in a MyBatis XML configuration.
+     */
+    @Override
+    public void setProperties(Properties properties) {
+        String thresholdMillis = properties.getProperty("thresholdMillis");
+        if (thresholdMillis != null) {
+            setThresholdMillis(Long.parseLong(thresholdMillis));
+        }
+        String maxParameters = properties.getProperty("maxParameters");
+        if (maxParameters != null) {
+            setMaxParameters(Integer.parseInt(maxParameters));
+        }
+        String maxParameterLength = properties.getProperty("maxParameterLength");
+        if (maxParameterLength != null) {
+            setMaxParameterLength(Integer.parseInt(maxParameterLength));
+        }
+    }
+
+}
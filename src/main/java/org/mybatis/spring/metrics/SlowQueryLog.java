@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import static org.springframework.util.Assert.isTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size lock-free ring buffer of the last {@link SlowQuery} captures. Writers claim a slot
+ * with a single atomic increment and never wait for each other nor for readers; once the buffer
+ * is full the oldest captures are overwritten.
+ *
+ * @see SlowQueryInterceptor
+ * @since 2.0.2
+ */
+public class SlowQueryLog {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final AtomicReferenceArray<SlowQuery> buffer;
+
+    private final int mask;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public SlowQueryLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of captures kept, rounded up to a power of two
+     */
+    public SlowQueryLog(int capacity) {
+        isTrue(capacity > 0 && capacity <= 1 << 30, "Property 'capacity' must be between 1 and 2^30");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public int getCapacity() {
+        return this.buffer.length();
+    }
+
+    /**
+     * @return the number of captures recorded since this log was created, including the overwritten ones
+     */
+    public long getTotalCount() {
+        return this.sequence.get();
+    }
+
+    void add(String statement, String sql, List<String> parameters, long elapsedNanos, long connectionWaitNanos) {
+        long next = this.sequence.getAndIncrement();
+        this.buffer.set((int) next & this.mask, new SlowQuery(next, System.currentTimeMillis(), statement, sql,
+                parameters, elapsedNanos, connectionWaitNanos, Thread.currentThread().getName()));
+    }
+
+    /**
+     * Returns the captures currently held by this log, oldest first.
+     *
+     * @return a copy of the captures
+     */
+    public List<SlowQuery> getSlowQueries() {
+        List<SlowQuery> slowQueries = new ArrayList<>(this.buffer.length());
+        for (int i = 0; i < this.buffer.length(); i++) {
+            SlowQuery slowQuery = this.buffer.get(i);
+            if (slowQuery != null) {
+                slowQueries.add(slowQuery);
+            }
+        }
+        slowQueries.sort(Comparator.comparingLong(SlowQuery::getSequence));
+        return slowQueries;
+    }
+
+    /**
+     * Renders the captures currently held by this log, oldest first, one per line.
+     *
+     * @return the captures as text
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (SlowQuery slowQuery : getSlowQueries()) {
+            dump.append(slowQuery).append(System.lineSeparator());
+        }
+        return dump.toString();
+    }
+
+    /**
+     * Removes every capture. Captures being added concurrently may survive.
+     */
+    public void clear() {
+        for (int i = 0; i < this.buffer.length(); i++) {
+            this.buffer.set(i, null);
+        }
+    }
+
+}
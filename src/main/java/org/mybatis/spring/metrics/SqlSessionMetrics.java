@@ -0,0 +1,66 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import org.apache.ibatis.session.ExecutorType;
+
+/**
+ * SPI notified by {@code SqlSessionTemplate} once every statement call ends. Implementations are
+ * called on the hot path of every call, from many threads at once, so they must be thread safe and
+ * should not block nor allocate.
+ *
+ * @see DefaultSqlSessionMetrics
+ * @see org.mybatis.spring.SqlSessionTemplate#setSqlSessionMetrics(SqlSessionMetrics)
+ * @since 2.0.2
+ */
+public interface SqlSessionMetrics {
+
+    /**
+     * Records a call that ended normally.
+     *
+     * @param statement the statement id
+     * @param executorType the executor type of the session that ran the statement
+     * @param transactional true if the session was bound to a Spring transaction or a unit of work
+     * @param elapsedNanos the elapsed time of the call in nanoseconds
+     * @param rowCount the number of rows returned or affected, or {@code -1} if not known
+     */
+    void recordSuccess(String statement, ExecutorType executorType, boolean transactional, long elapsedNanos, int rowCount);
+
+    /**
+     * Records a call that ended with an exception.
+     *
+     * @param statement the statement id
+     * @param executorType the executor type of the session that ran the statement
+     * @param transactional true if the session was bound to a Spring transaction or a unit of work
+     * @param elapsedNanos the elapsed time of the call in nanoseconds
+     * @param cause the exception thrown by the call, before being translated
+     */
+    void recordFailure(String statement, ExecutorType executorType, boolean transactional, long elapsedNanos, Throwable cause);
+
+    /**
+     * Records a non transactional call that did not run its statement because it shared the result
+     * of an identical call already in flight. Such calls are not passed to the other methods.
+     *
+     * @param statement the statement id
+     * @param executorType the executor type of the template
+     * @param elapsedNanos the time the call waited for the shared result in nanoseconds
+     * @since 2.0.2
+     */
+    default void recordCoalesced(String statement, ExecutorType executorType, long elapsedNanos) {
+        // not recorded by default
+    }
+
+}
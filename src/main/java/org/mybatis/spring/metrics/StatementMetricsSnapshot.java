@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.metrics;
+
+import org.apache.ibatis.session.ExecutorType;
+
+/**
+ * Immutable view of the metrics recorded by {@link DefaultSqlSessionMetrics} for one statement,
+ * executor type and transactional mode. Latencies are in nanoseconds.
+ *
+ * @since 2.0.2
+ */
+public final class StatementMetricsSnapshot {
+
+    private final String statement;
+
+    private final ExecutorType executorType;
+
+    private final boolean transactional;
+
+    private final long calls;
+
+    private final long errors;
+
+    private final long rows;
+
+    private final long coalesced;
+
+    private final LatencyHistogram.Snapshot latency;
+
+    StatementMetricsSnapshot(String statement, ExecutorType executorType, boolean transactional,
+                             long calls, long errors, long rows, long coalesced, LatencyHistogram.Snapshot latency) {
+        this.statement = statement;
+        this.executorType = executorType;
+        this.transactional = transactional;
+        this.calls = calls;
+        this.errors = errors;
+        this.rows = rows;
+        this.coalesced = coalesced;
+        this.latency = latency;
+    }
+
+    public String getStatement() {
+        return this.statement;
+    }
+
+    public ExecutorType getExecutorType() {
+        return this.executorType;
+    }
+
+    public boolean isTransactional() {
+        return this.transactional;
+    }
+
+    /**
+     * @return the number of calls, including the failed ones
+     */
+    public long getCalls() {
+        return this.calls;
+    }
+
+    public long getErrors() {
+        return this.errors;
+    }
+
+    /**
+     * @return the number of rows returned or affected by the calls that reported it
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the number of calls that shared the result of an identical call in flight, they are
+     * not included in the other counters
+     */
+    public long getCoalesced() {
+        return this.coalesced;
+    }
+
+    public LatencyHistogram.Snapshot getLatency() {
+        return this.latency;
+    }
+
+    public long getP50() {
+        return this.latency.getValueAtQuantile(0.5d);
+    }
+
+    public long getP99() {
+        return this.latency.getValueAtQuantile(0.99d);
+    }
+
+    public long getP999() {
+        return this.latency.getValueAtQuantile(0.999d);
+    }
+
+    @Override
+    public String toString() {
+        return "StatementMetricsSnapshot [statement=" + this.statement + ", executorType=" + this.executorType
+                + ", transactional=" + this.transactional + ", calls=" + this.calls + ", errors=" + this.errors
+                + ", rows=" + this.rows + ", coalesced=" + this.coalesced + ", p50=" + getP50() + ", p99=" + getP99() + ", p999=" + getP999()
+                + ", max=" + this.latency.getMax() + "]";
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.statement;
+
+import static org.springframework.util.Assert.notNull;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time after which the result of a request is no longer useful, for example because
+ * its HTTP client has given up. Statements run before a deadline get a query timeout no longer
+ * than the time remaining, and calls made after it fail without borrowing a connection.
+ * <p>
+ * Deadlines are measured with {@code System.nanoTime()}, so they are only meaningful within the
+ * JVM that created them.
+ *
+ * <pre class="code">
+ * {@code
+ * DeadlineHolder.callWith(Deadline.after(Duration.ofMillis(800)), () -> mapper.search(criteria));
+ * }
+ * </pre>
+ *
+ * @see DeadlineHolder
+ * @see StatementOptions.Builder#deadline(Deadline)
+ * @since 2.0.2
+ */
+public final class Deadline {
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Returns a deadline the given time from now.
+     *
+     * @param timeout the time left before the deadline
+     * @return a new deadline
+     */
+    public static Deadline after(Duration timeout) {
+        notNull(timeout, "Parameter 'timeout' must be not null");
+        return after(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a deadline the given time from now.
+     *
+     * @param timeout the time left before the deadline
+     * @param unit the unit of the timeout
+     * @return a new deadline
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        notNull(unit, "Parameter 'unit' must be not null");
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Returns the earliest of the given deadlines, either of them may be {@code null}.
+     *
+     * @param deadline a deadline
+     * @param other another deadline
+     * @return the earliest deadline, or {@code null} if both are {@code null}
+     */
+    public static Deadline earliest(Deadline deadline, Deadline other) {
+        if (deadline == null) {
+            return other;
+        } else if (other == null) {
+            return deadline;
+        }
+        return deadline.deadlineNanos - other.deadlineNanos <= 0 ? deadline : other;
+    }
+
+    /**
+     * @return the time left before the deadline in nanoseconds, negative once it has passed
+     */
+    public long remainingNanos() {
+        return this.deadlineNanos - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * Returns the time left before the deadline as a JDBC query timeout, rounded up to the second
+     * so a statement never gets a timeout of {@code 0}, which would mean no timeout.
+     *
+     * @return the remaining time in seconds, at least 1
+     */
+    public int remainingSeconds() {
+        long remaining = remainingNanos();
+        if (remaining <= 0) {
+            return 1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (remaining + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline [remainingMillis=" + TimeUnit.NANOSECONDS.toMillis(remainingNanos()) + "]";
+    }
+
+}
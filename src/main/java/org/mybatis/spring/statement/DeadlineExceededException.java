@@ -0,0 +1,38 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.statement;
+
+import org.springframework.dao.QueryTimeoutException;
+
+/**
+ * Thrown when a statement is about to run after the {@link Deadline} of its call has passed. The
+ * statement is not sent to the database.
+ *
+ * @since 2.0.2
+ */
+@SuppressWarnings("serial")
+public class DeadlineExceededException extends QueryTimeoutException {
+
+    /**
+     * Constructor for DeadlineExceededException.
+     *
+     * @param msg the detail message
+     */
+    public DeadlineExceededException(String msg) {
+        super(msg);
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.statement;
+
+import java.util.function.Supplier;
+
+/**
+ * Binds a {@link Deadline} to the current thread, so it applies to every statement run by it
+ * until it is reset, including the ones run through mapper interfaces. Nested deadlines can only
+ * shorten the bound one. Unlike {@code StatementOptions}, a bound deadline does not prevent calls
+ * from being coalesced by single-flight, so it can be bound for a whole request, for example by a
+ * web filter: a coalesced call waits no longer than its own deadline. Calls with a deadline are not
+ * batched by a {@code BatchLoader}, whose first caller runs the batch for all the others.
+ * <p>
+ * The deadline is applied by the {@link StatementOptionsInterceptor}. While a deadline is bound,
+ * {@code SqlSessionTemplate} calls fail with an {@code IllegalStateException} if the interceptor
+ * is not registered in the configuration of the template, as calls with statement options do.
+ *
+ * @see Deadline
+ * @since 2.0.2
+ */
+public final class DeadlineHolder {
+
+    private static final ThreadLocal<Deadline> DEADLINE = new ThreadLocal<>();
+
+    /**
+     * This class can't be instantiated, exposes static utility methods only.
+     */
+    private DeadlineHolder() {
+        // do nothing
+    }
+
+    /**
+     * @return the deadline bound to the current thread, or {@code null} if none
+     */
+    public static Deadline getDeadline() {
+        return DEADLINE.get();
+    }
+
+    /**
+     * Binds the given deadline to the current thread, or resets it if {@code null}.
+     *
+     * @param deadline the deadline to bind
+     */
+    public static void setDeadline(Deadline deadline) {
+        if (deadline == null) {
+            DEADLINE.remove();
+        } else {
+            DEADLINE.set(deadline);
+        }
+    }
+
+    public static void resetDeadline() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * Runs the given call with the earliest of the given deadline and the one already bound to the
+     * current thread, and then restores the previously bound one.
+     *
+     * @param deadline the deadline to apply during the call, {@code null} keeps the bound one
+     * @param call the call to run
+     * @param <T> the result type of the call
+     * @return the result of the call
+     */
+    public static <T> T callWith(Deadline deadline, Supplier<T> call) {
+        Deadline previous = DEADLINE.get();
+        setDeadline(Deadline.earliest(previous, deadline));
+        try {
+            return call.get();
+        } finally {
+            setDeadline(previous);
+        }
+    }
+
+    /**
+     * Returns the deadline applying to the statements run now by the current thread: the earliest
+     * of the bound one and the one of the bound {@code StatementOptions}.
+     *
+     * @return the current deadline, or {@code null} if none
+     */
+    public static Deadline currentDeadline() {
+        StatementOptions options = StatementOptionsHolder.getStatementOptions();
+        return Deadline.earliest(DEADLINE.get(), options == null ? null : options.getDeadline());
+    }
+
+}
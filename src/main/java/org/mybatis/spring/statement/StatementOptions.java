@@ -0,0 +1,222 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.statement;
+
+import org.apache.ibatis.mapping.ResultSetType;
+
+/**
+ * JDBC options applied to the statements run by a single call, overriding the ones of the
+ * {@code MappedStatement}. Options that are not set keep the value configured in the mapper.
+ * This way the same statement can use a large fetch size for a batch export and a short timeout
+ * for an interactive request.
+ * <p>
+ * Options are applied by the {@link StatementOptionsInterceptor} plugin, which must be registered
+ * in the MyBatis {@code Configuration}.
+ *
+ * <pre class="code">
+ * {@code
+ * StatementOptions options = StatementOptions.builder().fetchSize(1000).queryTimeout(2).build();
+ * }
+ * </pre>
+ *
+ * @see StatementOptionsHolder
+ * @see StatementOptionsInterceptor
+ * @since 2.0.2
+ */
+public final class StatementOptions {
+
+    private final Integer fetchSize;
+
+    private final Integer queryTimeout;
+
+    private final Integer maxRows;
+
+    private final ResultSetType resultSetType;
+
+    private final Deadline deadline;
+
+    private StatementOptions(Builder builder) {
+        this.fetchSize = builder.fetchSize;
+        this.queryTimeout = builder.queryTimeout;
+        this.maxRows = builder.maxRows;
+        this.resultSetType = builder.resultSetType;
+        this.deadline = builder.deadline;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a builder initialized with the options of this instance.
+     *
+     * @return a new builder
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .fetchSize(this.fetchSize)
+                .queryTimeout(this.queryTimeout)
+                .maxRows(this.maxRows)
+                .resultSetType(this.resultSetType)
+                .deadline(this.deadline);
+    }
+
+    /**
+     * Returns options where the ones not set in this instance are taken from the given defaults.
+     * The earliest of both deadlines is kept.
+     *
+     * @param defaults the options to fall back to, may be {@code null}
+     * @return the merged options
+     */
+    public StatementOptions withDefaults(StatementOptions defaults) {
+        if (defaults == null) {
+            return this;
+        }
+        return new Builder()
+                .fetchSize(this.fetchSize != null ? this.fetchSize : defaults.fetchSize)
+                .queryTimeout(this.queryTimeout != null ? this.queryTimeout : defaults.queryTimeout)
+                .maxRows(this.maxRows != null ? this.maxRows : defaults.maxRows)
+                .resultSetType(this.resultSetType != null ? this.resultSetType : defaults.resultSetType)
+                .deadline(Deadline.earliest(this.deadline, defaults.deadline))
+                .build();
+    }
+
+    /**
+     * @return the fetch size hint, or {@code null} if not set
+     */
+    public Integer getFetchSize() {
+        return this.fetchSize;
+    }
+
+    /**
+     * @return the query timeout in seconds, or {@code null} if not set
+     */
+    public Integer getQueryTimeout() {
+        return this.queryTimeout;
+    }
+
+    /**
+     * @return the maximum number of rows, or {@code null} if not set
+     */
+    public Integer getMaxRows() {
+        return this.maxRows;
+    }
+
+    /**
+     * @return the result set type, or {@code null} if not set
+     */
+    public ResultSetType getResultSetType() {
+        return this.resultSetType;
+    }
+
+    /**
+     * @return the deadline of the call, or {@code null} if not set
+     */
+    public Deadline getDeadline() {
+        return this.deadline;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementOptions [fetchSize=" + this.fetchSize + ", queryTimeout=" + this.queryTimeout
+                + ", maxRows=" + this.maxRows + ", resultSetType=" + this.resultSetType + ", deadline=" + this.deadline + "]";
+    }
+
+    /**
+     * A builder for the {@link StatementOptions}.
+     */
+    public static final class Builder {
+
+        private Integer fetchSize;
+
+        private Integer queryTimeout;
+
+        private Integer maxRows;
+
+        private ResultSetType resultSetType;
+
+        private Deadline deadline;
+
+        private Builder() {
+            // use StatementOptions.builder()
+        }
+
+        /**
+         * Set the number of rows the driver fetches per round trip.
+         *
+         * @param fetchSize the fetch size hint
+         * @return this instance for method chaining
+         * @see java.sql.Statement#setFetchSize(int)
+         */
+        public Builder fetchSize(Integer fetchSize) {
+            this.fetchSize = fetchSize;
+            return this;
+        }
+
+        /**
+         * Set the query timeout. A Spring transaction timeout still applies if it is shorter.
+         *
+         * @param queryTimeout the query timeout in seconds
+         * @return this instance for method chaining
+         * @see java.sql.Statement#setQueryTimeout(int)
+         */
+        public Builder queryTimeout(Integer queryTimeout) {
+            this.queryTimeout = queryTimeout;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of rows the driver returns, extra rows are silently dropped.
+         *
+         * @param maxRows the maximum number of rows
+         * @return this instance for method chaining
+         * @see java.sql.Statement#setMaxRows(int)
+         */
+        public Builder maxRows(Integer maxRows) {
+            this.maxRows = maxRows;
+            return this;
+        }
+
+        /**
+         * Set the type of the result sets created by the statement.
+         *
+         * @param resultSetType the result set type
+         * @return this instance for method chaining
+         */
+        public Builder resultSetType(ResultSetType resultSetType) {
+            this.resultSetType = resultSetType;
+            return this;
+        }
+
+        /**
+         * Set the deadline of the call. Statements get a query timeout no longer than the time
+         * remaining and fail once it has passed.
+         *
+         * @param deadline the deadline of the call
+         * @return this instance for method chaining
+         * @see DeadlineHolder
+         */
+        public Builder deadline(Deadline deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public StatementOptions build() {
+            return new StatementOptions(this);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.statement;
+
+import java.util.function.Supplier;
+
+/**
+ * Binds {@link StatementOptions} to the current thread, so they apply to every statement run by
+ * it until they are reset, including the ones run through mapper interfaces.
+ *
+ * <pre class="code">
+ * {@code
+ * List<Row> rows = StatementOptionsHolder.callWith(options, () -> mapper.export(criteria));
+ * }
+ * </pre>
+ *
+ * @see StatementOptionsInterceptor
+ * @since 2.0.2
+ */
+public final class StatementOptionsHolder {
+
+    private static final ThreadLocal<StatementOptions> STATEMENT_OPTIONS = new ThreadLocal<>();
+
+    /**
+     * This class can't be instantiated, exposes static utility methods only.
+     */
+    private StatementOptionsHolder() {
+        // do nothing
+    }
+
+    /**
+     * @return the options bound to the current thread, or {@code null} if none
+     */
+    public static StatementOptions getStatementOptions() {
+        return STATEMENT_OPTIONS.get();
+    }
+
+    /**
+     * Binds the given options to the current thread, or resets them if {@code null}.
+     *
+     * @param statementOptions the options to bind
+     */
+    public static void setStatementOptions(StatementOptions statementOptions) {
+        if (statementOptions == null) {
+            STATEMENT_OPTIONS.remove();
+        } else {
+            STATEMENT_OPTIONS.set(statementOptions);
+        }
+    }
+
+    public static void resetStatementOptions() {
+        STATEMENT_OPTIONS.remove();
+    }
+
+    /**
+     * Runs the given call with the given options bound to the current thread and then restores
+     * the previously bound ones.
+     *
+     * @param statementOptions the options to bind during the call
+     * @param call the call to run
+     * @param <T> the result type of the call
+     * @return the result of the call
+     */
+    public static <T> T callWith(StatementOptions statementOptions, Supplier<T> call) {
+        StatementOptions previous = STATEMENT_OPTIONS.get();
+        setStatementOptions(statementOptions);
+        try {
+            return call.get();
+        } finally {
+            setStatementOptions(previous);
+        }
+    }
+
+}
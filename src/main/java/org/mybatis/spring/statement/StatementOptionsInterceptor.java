@@ -0,0 +1,181 @@
+/**
+ * Copyright 2010-2019 the original author or authors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.mybatis.spring.statement;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.executor.statement.StatementUtil;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Plugin;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * MyBatis plugin that applies the {@link StatementOptions} bound to the current thread to every
+ * JDBC statement once MyBatis has prepared it with the options of its {@code MappedStatement}.
+ * A Spring transaction timeout still wins over a longer query timeout.
+ * <p>
+ * It also shortens the query timeout of every statement to the time left before the current
+ * {@link Deadline}, bound by {@link DeadlineHolder} or set in the options, and fails the statements
+ * prepared after the deadline with a {@link DeadlineExceededException}.
+ * <p>
+ * It must be registered in the MyBatis configuration, for example:
+ *
+ * <pre class="code">
+ * {@code
+ * <bean id="sqlSessionFactory" class="org.mybatis.spring.SqlSessionFactoryBean">
+ *   <property name="dataSource" ref="dataSource" />
+ *   <property name="plugins">
+ *     <bean class="org.mybatis.spring.statement.StatementOptionsInterceptor" />
+ *   </property>
+ * </bean>
+ * }
+ * </pre>
+ *
+ * @see StatementOptionsHolder
+ * @since 2.0.2
+ */
+@Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class}))
+public class StatementOptionsInterceptor implements Interceptor {
+
+    /**
+     * Returns if a {@code StatementOptionsInterceptor} is registered in the given configuration.
+     *
+     * @param configuration a MyBatis configuration
+     * @return true if statement options are applied by the configuration
+     */
+    public static boolean isRegistered(Configuration configuration) {
+        for (Interceptor interceptor : configuration.getInterceptors()) {
+            if (interceptor instanceof StatementOptionsInterceptor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        StatementOptions options = StatementOptionsHolder.getStatementOptions();
+        Deadline deadline = DeadlineHolder.currentDeadline();
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException("Deadline exceeded before running the statement");
+        }
+        if (options == null) {
+            return applyDeadline((Statement) invocation.proceed(), deadline);
+        }
+
+        Statement statement;
+        ResultSetType resultSetType = options.getResultSetType();
+        if (resultSetType != null && resultSetType != ResultSetType.DEFAULT) {
+            // the result set type can only be set when the statement is created
+            Object[] args = invocation.getArgs();
+            Connection connection = resultSetTypeConnection((Connection) args[0], resultSetType.getValue());
+            statement = (Statement) invocation.getMethod().invoke(invocation.getTarget(), connection, args[1]);
+        } else {
+            statement = (Statement) invocation.proceed();
+        }
+
+        if (options.getFetchSize() != null) {
+            statement.setFetchSize(options.getFetchSize());
+        }
+        if (options.getMaxRows() != null) {
+            statement.setMaxRows(options.getMaxRows());
+        }
+        if (options.getQueryTimeout() != null) {
+            statement.setQueryTimeout(options.getQueryTimeout());
+            StatementUtil.applyTransactionTimeout(statement, options.getQueryTimeout(), (Integer) invocation.getArgs()[1]);
+        }
+        return applyDeadline(statement, deadline);
+    }
+
+    /**
+     * Shortens the query timeout of the statement, already bounded by the transaction timeout, to
+     * the time left before the deadline.
+     */
+    private static Statement applyDeadline(Statement statement, Deadline deadline) throws SQLException {
+        if (deadline != null) {
+            int remaining = deadline.remainingSeconds();
+            int queryTimeout = statement.getQueryTimeout();
+            if (queryTimeout == 0 || remaining < queryTimeout) {
+                statement.setQueryTimeout(remaining);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * Wraps the connection so the statements MyBatis creates through it use the given result set type.
+     */
+    private static Connection resultSetTypeConnection(Connection connection, int resultSetType) {
+        return (Connection) Proxy.newProxyInstance(StatementOptionsInterceptor.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    try {
+                        switch (method.getName()) {
+                            case "createStatement":
+                                if (args == null || args.length == 2) {
+                                    return connection.createStatement(resultSetType, ResultSet.CONCUR_READ_ONLY);
+                                }
+                                break;
+                            case "prepareStatement":
+                                if (args.length == 1 || (args.length == 3 && args[1] instanceof Integer)) {
+                                    return connection.prepareStatement((String) args[0], resultSetType, ResultSet.CONCUR_READ_ONLY);
+                                }
+                                break;
+                            case "prepareCall":
+                                if (args.length == 1 || args.length == 3) {
+                                    return connection.prepareCall((String) args[0], resultSetType, ResultSet.CONCUR_READ_ONLY);
+                                }
+                                break;
+                            default:
+                                break;
+                        }
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object plugin(Object target) {
+        return Plugin.wrap(target, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setProperties(Properties properties) {
+        // no properties
+    }
+
+}
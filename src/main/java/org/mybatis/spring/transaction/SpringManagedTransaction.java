@@ -27,6 +27,8 @@ import org.mybatis.logging.Logger;
 import org.mybatis.logging.LoggerFactory;
 import org.springframework.jdbc.datasource.ConnectionHolder;
 import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
@@ -38,6 +40,12 @@ import org.springframework.transaction.support.TransactionSynchronizationManager
  * assuming that the Spring transaction manager will do the job.
  * <p>
  * If it is not it will behave like {@code JdbcTransaction}.
+ * <p>
+ * In a read-only Spring transaction, a connection that the transaction manager did not make
+ * read-only already is made read-only, as a hint to the driver and the database. A connection
+ * bound to the transaction is shared by every {@code SqlSession} of it, so it is made read-only
+ * once and reset when the transaction completes; any other connection is reset when this
+ * {@code Transaction} is closed.
  *
  * @author Hunter Presnall
  * @author Eduardo Macarron
@@ -54,6 +62,10 @@ public class SpringManagedTransaction implements Transaction {
 
     private boolean autoCommit;
 
+    private long connectionWaitNanos;
+
+    private boolean resetReadOnly;
+
     public SpringManagedTransaction(DataSource dataSource) {
         notNull(dataSource, "No DataSource specified");
         this.dataSource = dataSource;
@@ -79,9 +91,14 @@ public class SpringManagedTransaction implements Transaction {
      * so we need to no-op that calls.
      */
     private void openConnection() throws SQLException {
+        long start = System.nanoTime();
         this.connection = DataSourceUtils.getConnection(this.dataSource);
+        this.connectionWaitNanos += System.nanoTime() - start;
         this.autoCommit = this.connection.getAutoCommit();
         this.isConnectionTransactional = DataSourceUtils.isConnectionTransactional(this.connection, this.dataSource);
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            applyReadOnly();
+        }
 
         LOGGER.debug(() ->
                 "JDBC Connection ["
@@ -91,6 +108,50 @@ public class SpringManagedTransaction implements Transaction {
                         + "be managed by Spring");
     }
 
+    /**
+     * Makes the connection read-only, unless it already is as when the transaction manager prepared
+     * it. Drivers may refuse it, for example once a transaction has started, it is then only logged.
+     * A transactional connection is only checked by the first {@code Transaction} using it.
+     */
+    private void applyReadOnly() {
+        ReadOnlySynchronization synchronization = null;
+        if (this.isConnectionTransactional) {
+            ReadOnlyKey key = new ReadOnlyKey(this.dataSource);
+            if (TransactionSynchronizationManager.hasResource(key)) {
+                return;
+            }
+            ConnectionHolder holder = (ConnectionHolder) TransactionSynchronizationManager.getResource(this.dataSource);
+            synchronization = new ReadOnlySynchronization(key, holder, this.connection);
+            TransactionSynchronizationManager.bindResource(key, synchronization);
+            TransactionSynchronizationManager.registerSynchronization(synchronization);
+        }
+        try {
+            if (!this.connection.isReadOnly()) {
+                LOGGER.debug(() -> "Setting JDBC Connection [" + this.connection + "] read-only");
+                this.connection.setReadOnly(true);
+                if (synchronization != null) {
+                    synchronization.resetOnCompletion();
+                } else {
+                    this.resetReadOnly = true;
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.debug(() -> "Could not set JDBC Connection [" + this.connection + "] read-only: " + e);
+        }
+    }
+
+    /**
+     * Returns the time spent getting the JDBC connection from the {@code DataSource}, which
+     * includes the time waited for a pooled connection. It is {@code 0} until the connection is
+     * requested.
+     *
+     * @return the connection wait time in nanoseconds
+     * @since 2.0.2
+     */
+    public long getConnectionWaitNanos() {
+        return this.connectionWaitNanos;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -118,9 +179,21 @@ public class SpringManagedTransaction implements Transaction {
      */
     @Override
     public void close() {
+        if (this.resetReadOnly) {
+            this.resetReadOnly = false;
+            resetReadOnly(this.connection);
+        }
         DataSourceUtils.releaseConnection(this.connection, this.dataSource);
     }
 
+    private static void resetReadOnly(Connection connection) {
+        try {
+            connection.setReadOnly(false);
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.debug(() -> "Could not reset read-only flag of JDBC Connection [" + connection + "]: " + e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -133,4 +206,104 @@ public class SpringManagedTransaction implements Transaction {
         return null;
     }
 
+    /**
+     * Key of the {@code ReadOnlySynchronization} of a {@code DataSource} in the current transaction.
+     */
+    private static final class ReadOnlyKey {
+
+        private final DataSource dataSource;
+
+        ReadOnlyKey(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof ReadOnlyKey && ((ReadOnlyKey) other).dataSource == this.dataSource;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.dataSource);
+        }
+    }
+
+    /**
+     * Resets the read-only flag of a transactional connection once the transaction completes. The
+     * connection holder is kept open until then, so a scope without an actual transaction does not
+     * give the connection back to its pool before it is reset.
+     */
+    private static final class ReadOnlySynchronization extends TransactionSynchronizationAdapter {
+
+        private final ReadOnlyKey key;
+
+        private final ConnectionHolder holder;
+
+        private final Connection connection;
+
+        private final int order;
+
+        private boolean resetReadOnly;
+
+        ReadOnlySynchronization(ReadOnlyKey key, ConnectionHolder holder, Connection connection) {
+            this.key = key;
+            this.holder = holder;
+            this.connection = connection;
+            // same as DataSourceUtils, whose synchronization releases the connection
+            int connectionOrder = DataSourceUtils.CONNECTION_SYNCHRONIZATION_ORDER;
+            for (DataSource dataSource = key.dataSource; dataSource instanceof DelegatingDataSource;
+                 dataSource = ((DelegatingDataSource) dataSource).getTargetDataSource()) {
+                connectionOrder--;
+            }
+            this.order = connectionOrder - 1;
+        }
+
+        void resetOnCompletion() {
+            this.resetReadOnly = true;
+            if (this.holder != null) {
+                this.holder.requested();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getOrder() {
+            // reset before the connection is released
+            return this.order;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(this.key);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(this.key, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(this.key);
+            if (this.resetReadOnly) {
+                this.resetReadOnly = false;
+                resetReadOnly(this.connection);
+                if (this.holder != null) {
+                    this.holder.released();
+                }
+            }
+        }
+    }
+
 }